@@ -1,9 +1,22 @@
 package cz.fmo;
 
 import android.app.Activity;
+import android.preference.PreferenceManager;
 import android.widget.TextView;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import cz.fmo.benchmark.Benchmark;
+import cz.fmo.benchmark.BenchmarkThread;
+import cz.fmo.benchmark.CostCalibration;
+import cz.fmo.benchmark.DownscaleBenchmark;
+import cz.fmo.benchmark.IngestionBenchmark;
+import cz.fmo.benchmark.ReplayBenchmark;
+import cz.fmo.benchmark.TileBenchmark;
+import cz.fmo.recording.FrameCaptureWriter;
+import cz.fmo.util.FileManager;
 
 /**
  * Runs the benchmarks and displays the result on screen.
@@ -11,6 +24,7 @@ import java.lang.ref.WeakReference;
 public final class BenchmarkingActivity extends Activity {
     private final GUI mGUI = new GUI();
     private final Handler mHandler = new Handler(this);
+    private BenchmarkThread mThread;
 
     @Override
     protected void onCreate(android.os.Bundle saved) {
@@ -21,13 +35,25 @@ public final class BenchmarkingActivity extends Activity {
     @Override
     protected void onResume() {
         super.onResume();
-        Lib.benchmarkingStart(mHandler);
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new IngestionBenchmark());
+        benchmarks.add(new DownscaleBenchmark());
+        benchmarks.add(new TileBenchmark());
+        benchmarks.add(new CostCalibration(PreferenceManager.getDefaultSharedPreferences(this)));
+
+        // replay frames captured by RecordingActivity, if there are any
+        File capture = new FileManager(this).privateOpen(FrameCaptureWriter.FILENAME);
+        if (capture.exists()) benchmarks.add(new ReplayBenchmark(capture));
+
+        mThread = new BenchmarkThread(mHandler, benchmarks.toArray(new Benchmark[0]));
+        mThread.start();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        Lib.benchmarkingStop();
+        mThread.stopAndJoin();
+        mThread = null;
     }
 
     private static class Handler extends android.os.Handler implements Lib.Callback {
@@ -44,7 +70,7 @@ public final class BenchmarkingActivity extends Activity {
         }
 
         @Override
-        public void onObjectsDetected(Lib.Detection[] detections) {
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
         }
 
         @Override
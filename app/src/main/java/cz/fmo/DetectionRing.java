@@ -0,0 +1,157 @@
+package cz.fmo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer, single-consumer ring of detection results, stored in a direct buffer that is
+ * shared with native code. A detector created with this ring (see Lib.detectorCreateRing()) does
+ * not call Callback.onObjectsDetected(); instead, each frame that contains detections is written
+ * as one record into the buffer, and consumers collect the records using poll(), whenever it suits
+ * them. The layout of the buffer, in native byte order, is:
+ * <pre>
+ *   int   capacity, in records
+ *   int   maximum number of detections per record
+ *   long  head: number of records written; updated by native code
+ *   long  tail: number of records consumed; updated by Java code before each frame
+ *   long  number of records dropped by native code because the ring was full
+ *   ...   capacity records, each RECORD_HEADER_SIZE bytes followed by the detections
+ * </pre>
+ * A record consists of a long timestamp, an int number of detections and an int scaling factor,
+ * followed by the detections, each with the fields of Lib.Detection in declaration order. Native
+ * code only fills in the detections and their number; the timestamp and the factor are filled in
+ * by afterFrame().
+ * <p>
+ * Native code only touches the buffer during a frame, on the producer thread. Records are handed
+ * over to the consumer thread through volatile fields, which are updated by the producer thread in
+ * afterFrame() and by the consumer thread in poll(); this is what makes the records visible to the
+ * other thread, since plain buffer accesses carry no ordering guarantees.
+ */
+public final class DetectionRing {
+    private static final int CAPACITY = 0;
+    private static final int MAX_DETECTIONS = 4;
+    private static final int HEAD = 8;
+    private static final int TAIL = 16;
+    private static final int DROPPED = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_TIMESTAMP = 0;
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_FACTOR = 12;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMaxDetections;
+    private final int mRecordSize;
+    private volatile long mPublished = 0;
+    private volatile long mConsumed = 0;
+    private volatile long mNumDropped = 0;
+
+    /**
+     * @param capacity      maximum number of records (frames) waiting to be consumed
+     * @param maxDetections maximum number of detections per record
+     */
+    public DetectionRing(int capacity, int maxDetections) {
+        mCapacity = capacity;
+        mMaxDetections = maxDetections;
+        mRecordSize = RECORD_HEADER_SIZE + maxDetections * LibStats.DETECTION_BYTES;
+        mBuffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * mRecordSize);
+        mBuffer.order(ByteOrder.nativeOrder());
+        mBuffer.putInt(CAPACITY, capacity);
+        mBuffer.putInt(MAX_DETECTIONS, maxDetections);
+    }
+
+    /**
+     * @return the shared buffer, to be passed to native code
+     */
+    ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Lets native code know which records have been consumed. To be called on the producer thread
+     * before each frame is passed to the detector.
+     */
+    public void beforeFrame() {
+        mBuffer.putLong(TAIL, mConsumed);
+    }
+
+    /**
+     * Completes the records written by native code during the last frame and makes them available
+     * to the consumer. To be called on the producer thread after each frame.
+     *
+     * @param timestamp frame time in nanoseconds
+     * @param factor    factor by which detections have to be scaled to get the coordinates of the
+     *                  original frame; 1 if the detector worked with the original frame
+     */
+    public void afterFrame(long timestamp, int factor) {
+        long head = mBuffer.getLong(HEAD);
+
+        for (long record = mPublished; record < head; record++) {
+            int offset = offset(record);
+            mBuffer.putLong(offset + RECORD_TIMESTAMP, timestamp);
+            mBuffer.putInt(offset + RECORD_FACTOR, factor);
+        }
+
+        mNumDropped = mBuffer.getLong(DROPPED);
+        mPublished = head;
+    }
+
+    /**
+     * Takes the oldest record out of the ring. To be called on the consumer thread.
+     *
+     * @param out batch to be filled with detections, scaled to the coordinates of the original
+     *            frame; should be able to hold the maximum number of detections per record
+     * @return false if there are no records waiting
+     */
+    public boolean poll(Lib.DetectionBatch out) {
+        long record = mConsumed;
+        if (record == mPublished) return false;
+
+        int offset = offset(record);
+        int factor = mBuffer.getInt(offset + RECORD_FACTOR);
+        int size = Math.min(out.capacity, mBuffer.getInt(offset + RECORD_SIZE));
+        out.timestamp = mBuffer.getLong(offset + RECORD_TIMESTAMP);
+        out.size = size;
+
+        int pos = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < size; i++, pos += LibStats.DETECTION_BYTES) {
+            out.id[i] = mBuffer.getInt(pos);
+            out.predecessorId[i] = mBuffer.getInt(pos + 4);
+            out.centerX[i] = mBuffer.getInt(pos + 8) * factor;
+            out.centerY[i] = mBuffer.getInt(pos + 12) * factor;
+            out.directionX[i] = mBuffer.getFloat(pos + 16);
+            out.directionY[i] = mBuffer.getFloat(pos + 20);
+            out.length[i] = mBuffer.getFloat(pos + 24) * factor;
+            out.radius[i] = mBuffer.getFloat(pos + 28) * factor;
+            out.velocity[i] = mBuffer.getFloat(pos + 32) * factor;
+        }
+
+        mConsumed = record + 1;
+        return true;
+    }
+
+    private int offset(long record) {
+        return HEADER_SIZE + (int) (record % mCapacity) * mRecordSize;
+    }
+
+    /**
+     * @return the maximum number of detections per record
+     */
+    public int getMaxDetections() {
+        return mMaxDetections;
+    }
+
+    /**
+     * @return the number of records made available to the consumer so far
+     */
+    public long getNumPublished() {
+        return mPublished;
+    }
+
+    /**
+     * @return the number of records dropped so far because the consumer did not keep up
+     */
+    public long getNumDropped() {
+        return mNumDropped;
+    }
+}
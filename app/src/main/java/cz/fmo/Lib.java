@@ -1,35 +1,136 @@
 package cz.fmo;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
 
 import cz.fmo.graphics.FontRenderer;
 import cz.fmo.graphics.TriangleStripRenderer;
 
+/**
+ * Native methods of the fmo-android library. Their names are the JNI symbols exported by native
+ * code, so they must not be renamed. Calls made directly are not measured; MeasuredLib has wrappers
+ * with the same signatures that record the calls in LibStats.
+ */
 public final class Lib {
 
     static {
         System.loadLibrary("fmo-android");
     }
 
+    private static long sDefaultDetector = 0;
+
     /**
+     * Creates a detector. Several detectors can exist at the same time and run concurrently, as
+     * long as each of them is used by a single thread at a time.
+     *
      * @param width input image width
      * @param height input image height
      * @param procRes maximum height of downscaled (processing-resolution) image
      * @param gray do the processing in gray scale
+     * @param mask direct buffer with one byte per input image pixel; pixels with value 0 are
+     *             skipped entirely; null to process the whole image
+     * @param batch preallocated batch that native code fills with detections in every frame
      * @param cb callback to report events to
+     * @return handle to pass to the other detector methods, never 0
+     */
+    public static native long detectorCreate(int width, int height, int procRes, boolean gray,
+                                             @Nullable ByteBuffer mask,
+                                             @NonNull DetectionBatch batch, @NonNull Callback cb);
+
+    /**
+     * Creates a detector that writes its detections into a ring buffer instead of reporting them
+     * using Callback.onObjectsDetected(), which saves a JNI upcall per frame. The callback is only
+     * used for log messages. The buffer is managed by a DetectionRing, and each frame has to be
+     * surrounded by calls of its beforeFrame() and afterFrame() methods.
+     *
+     * @param ring buffer of a DetectionRing; records that do not fit are dropped
+     * @see #detectorCreate(int, int, int, boolean, ByteBuffer, DetectionBatch, Callback)
      */
-    public static native void detectionStart(int width, int height, int procRes, boolean gray,
-                                             @NonNull Callback cb);
+    public static native long detectorCreateRing(int width, int height, int procRes,
+                                                 boolean gray, @Nullable ByteBuffer mask,
+                                                 @NonNull ByteBuffer ring, @NonNull Callback cb);
 
-    public static native void detectionFrame(byte[] dataYUV420SP);
+    public static native void detectorFrame(long handle, byte[] dataYUV420SP);
 
-    public static native void detectionStop();
+    /**
+     * Same as detectorFrame(long, byte[]), but the data is read by native code in place, avoiding
+     * the need to pin or copy a Java array. Native code must export this overload under its long
+     * (signature-mangled) JNI name.
+     *
+     * @param dataYUV420SP direct buffer containing NV21 image data
+     */
+    public static native void detectorFrame(long handle, ByteBuffer dataYUV420SP);
+
+    /**
+     * Runs detection only inside the specified rectangles of the frame; the rest of the frame is
+     * not processed. Detections are reported in the coordinates of the whole input image, and
+     * tracking continues across calls of this method and detectorFrame().
+     *
+     * @param dataYUV420SP direct buffer containing NV21 image data of the whole frame
+     * @param rects        four values per rectangle: x, y, width, height, in input image pixels
+     * @param numRects     number of rectangles to process
+     */
+    public static native void detectorFrameRoi(long handle, ByteBuffer dataYUV420SP, int[] rects,
+                                               int numRects);
+
+    /**
+     * Releases the detector. The handle must not be used afterwards.
+     */
+    public static native void detectorDestroy(long handle);
+
+    /**
+     * Starts the default detector, replacing the previous one, if any. The detectionXxx() methods
+     * are kept for code that only ever needs a single detector; see detectorCreate() for the
+     * meaning of the parameters. Unlike the detectorXxx() methods, they are measured.
+     */
+    public static synchronized void detectionStart(int width, int height, int procRes,
+                                                   boolean gray, @Nullable ByteBuffer mask,
+                                                   @NonNull DetectionBatch batch,
+                                                   @NonNull Callback cb) {
+        if (sDefaultDetector != 0) MeasuredLib.detectorDestroy(sDefaultDetector);
+        sDefaultDetector = MeasuredLib.detectorCreate(width, height, procRes, gray, mask, batch,
+                cb);
+    }
+
+    public static void detectionFrame(byte[] dataYUV420SP) {
+        MeasuredLib.detectorFrame(getDefaultDetector(), dataYUV420SP);
+    }
+
+    public static void detectionFrame(ByteBuffer dataYUV420SP) {
+        MeasuredLib.detectorFrame(getDefaultDetector(), dataYUV420SP);
+    }
+
+    public static void detectionFrameRoi(ByteBuffer dataYUV420SP, int[] rects, int numRects) {
+        MeasuredLib.detectorFrameRoi(getDefaultDetector(), dataYUV420SP, rects, numRects);
+    }
+
+    public static synchronized void detectionStop() {
+        if (sDefaultDetector == 0) return;
+        MeasuredLib.detectorDestroy(sDefaultDetector);
+        sDefaultDetector = 0;
+    }
+
+    private static synchronized long getDefaultDetector() {
+        if (sDefaultDetector == 0) throw new RuntimeException("Detection not started");
+        return sDefaultDetector;
+    }
 
     public static native void benchmarkingStart(Callback cb);
 
     public static native void benchmarkingStop();
 
-    public static native void generateCurve(Detection det, float[] rgba,
+    /**
+     * Generates a curve that visualizes the history of a track. The points are read from a ring
+     * buffer, which contains interleaved points with the following fields (7 floats per point):
+     * centerX, centerY, directionX, directionY, length, radius, velocity.
+     *
+     * @param points ring buffer with interleaved points
+     * @param newest index of the newest point in the ring
+     * @param count  number of valid points, going backwards from the newest one (with wrap-around)
+     */
+    public static native void generateCurve(float[] points, int newest, int count, float[] rgba,
                                             TriangleStripRenderer.Buffers b);
 
     public static native void generateString(String str, float x, float y, float h, float[] rgba,
@@ -42,7 +143,11 @@ public final class Lib {
     public interface Callback {
         void log(String message);
 
-        void onObjectsDetected(Detection[] detections);
+        /**
+         * Called after each frame that contains detections. The batch is reused for the next frame,
+         * so its contents must be consumed before returning.
+         */
+        void onObjectsDetected(DetectionBatch batch);
     }
 
     @SuppressWarnings("unused")
@@ -56,8 +161,92 @@ public final class Lib {
         public float length;      // length of the object in input image pixels
         public float radius;      // radius of the object in input image pixels
         public float velocity;    // velocity of the object in pixels per frame
+    }
 
-        // Java-specific
-        public Detection predecessor;
+    /**
+     * Detections reported in a single frame, stored as a structure of arrays. The arrays are
+     * allocated once and filled in place by native code, so that no objects need to be created
+     * per frame. The meaning of the arrays is the same as that of the fields of Detection.
+     */
+    @SuppressWarnings("unused")
+    public static class DetectionBatch {
+        public final int capacity;        // maximum number of detections
+        public int size = 0;              // number of valid detections
+        public long timestamp = 0;        // frame time in nanoseconds, set by Java code
+        public final int[] id;
+        public final int[] predecessorId;
+        public final int[] centerX;
+        public final int[] centerY;
+        public final float[] directionX;
+        public final float[] directionY;
+        public final float[] length;
+        public final float[] radius;
+        public final float[] velocity;
+
+        public DetectionBatch(int capacity) {
+            this.capacity = capacity;
+            id = new int[capacity];
+            predecessorId = new int[capacity];
+            centerX = new int[capacity];
+            centerY = new int[capacity];
+            directionX = new float[capacity];
+            directionY = new float[capacity];
+            length = new float[capacity];
+            radius = new float[capacity];
+            velocity = new float[capacity];
+        }
+
+        /**
+         * Copies the i-th detection into an object.
+         */
+        public void get(int i, Detection out) {
+            out.id = id[i];
+            out.predecessorId = predecessorId[i];
+            out.centerX = centerX[i];
+            out.centerY = centerY[i];
+            out.directionX = directionX[i];
+            out.directionY = directionY[i];
+            out.length = length[i];
+            out.radius = radius[i];
+            out.velocity = velocity[i];
+        }
+
+        /**
+         * Copies an object into the i-th slot of the batch.
+         */
+        public void set(int i, Detection in) {
+            id[i] = in.id;
+            predecessorId[i] = in.predecessorId;
+            centerX[i] = in.centerX;
+            centerY[i] = in.centerY;
+            directionX[i] = in.directionX;
+            directionY[i] = in.directionY;
+            length[i] = in.length;
+            radius[i] = in.radius;
+            velocity[i] = in.velocity;
+        }
+
+        /**
+         * @return contents of the batch converted to objects; allocates, use outside hot paths
+         */
+        public Detection[] toArray() {
+            Detection[] out = new Detection[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = new Detection();
+                get(i, out[i]);
+            }
+            return out;
+        }
+
+        /**
+         * Replaces the contents of the batch with the provided objects.
+         */
+        public void fromArray(Detection[] detections) {
+            if (detections.length > capacity) throw new RuntimeException("Batch too small");
+            for (int i = 0; i < detections.length; i++) {
+                set(i, detections[i]);
+            }
+            size = detections.length;
+        }
     }
 }
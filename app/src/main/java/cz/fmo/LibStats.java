@@ -0,0 +1,200 @@
+package cz.fmo;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Registry of measurements taken at the JNI boundary: for each native method of Lib and for each
+ * callback invoked by native code, it counts calls, bytes passed across the boundary and
+ * nanoseconds spent. Values are kept as totals since the last reset, and for the last complete
+ * second; dividing the latter by the number of frames in that second gives per-frame values.
+ * <p>
+ * Callbacks run inside the native method that invokes them, so their time is included in the time
+ * of that method as well. Measurements are taken only while the registry is enabled, so that it
+ * costs nothing otherwise. All methods are thread-safe.
+ */
+public final class LibStats {
+    static final int DETECTION_BYTES = 9 * 4;
+    private static final long SECOND_NS = 1000000000L;
+    private static final int NUM_METHODS = Method.values().length;
+    private static final int NUM_FIELDS = Field.values().length;
+    private static final Object sLock = new Object();
+    private static final long[] sTotal = new long[NUM_METHODS * NUM_FIELDS];
+    private static final long[] sCurrent = new long[NUM_METHODS * NUM_FIELDS];
+    private static final long[] sLast = new long[NUM_METHODS * NUM_FIELDS];
+    private static volatile boolean sEnabled = false;
+    private static long sSecondStart = 0;
+    private static long sCurrentFrames = 0;
+    private static long sLastFrames = 0;
+    private static long sTotalFrames = 0;
+
+    private LibStats() {
+    }
+
+    /**
+     * Enables or disables measurements. Enabling also resets all values.
+     */
+    public static void setEnabled(boolean enabled) {
+        synchronized (sLock) {
+            if (enabled && !sEnabled) {
+                Arrays.fill(sTotal, 0);
+                Arrays.fill(sCurrent, 0);
+                Arrays.fill(sLast, 0);
+                sTotalFrames = sCurrentFrames = sLastFrames = 0;
+                sSecondStart = System.nanoTime();
+            }
+            sEnabled = enabled;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return start time to be passed to end(), or 0 if measurements are disabled
+     */
+    static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a single call.
+     *
+     * @param start value returned by begin() before the call
+     * @param bytes number of bytes passed across the boundary
+     */
+    static void end(Method method, long start, long bytes) {
+        if (start == 0) return;
+        long now = System.nanoTime();
+
+        synchronized (sLock) {
+            if (!sEnabled) return;
+            roll(now);
+            int i = method.ordinal() * NUM_FIELDS;
+            sCurrent[i + Field.CALLS.ordinal()]++;
+            sCurrent[i + Field.BYTES.ordinal()] += bytes;
+            sCurrent[i + Field.NS.ordinal()] += now - start;
+            sTotal[i + Field.CALLS.ordinal()]++;
+            sTotal[i + Field.BYTES.ordinal()] += bytes;
+            sTotal[i + Field.NS.ordinal()] += now - start;
+        }
+    }
+
+    /**
+     * Marks the start of a new frame, for per-frame aggregation.
+     */
+    public static void onFrame() {
+        if (!sEnabled) return;
+
+        synchronized (sLock) {
+            if (!sEnabled) return;
+            roll(System.nanoTime());
+            sCurrentFrames++;
+            sTotalFrames++;
+        }
+    }
+
+    /**
+     * Moves the values of the current second into the last-second slot once the second is over.
+     */
+    private static void roll(long now) {
+        if (now - sSecondStart < SECOND_NS) return;
+        boolean skipped = now - sSecondStart >= 2 * SECOND_NS;
+
+        if (skipped) {
+            // nothing happened for a whole second
+            Arrays.fill(sLast, 0);
+            sLastFrames = 0;
+        } else {
+            System.arraycopy(sCurrent, 0, sLast, 0, sCurrent.length);
+            sLastFrames = sCurrentFrames;
+        }
+
+        Arrays.fill(sCurrent, 0);
+        sCurrentFrames = 0;
+        sSecondStart = now - (now - sSecondStart) % SECOND_NS;
+    }
+
+    /**
+     * @return the value accumulated since measurements were enabled
+     */
+    public static long getTotal(Method method, Field field) {
+        synchronized (sLock) {
+            return sTotal[method.ordinal() * NUM_FIELDS + field.ordinal()];
+        }
+    }
+
+    /**
+     * @return the value accumulated during the last complete second
+     */
+    public static long getLastSecond(Method method, Field field) {
+        synchronized (sLock) {
+            roll(System.nanoTime());
+            return sLast[method.ordinal() * NUM_FIELDS + field.ordinal()];
+        }
+    }
+
+    /**
+     * @return the mean value per frame during the last complete second, or 0 if there were no
+     * frames
+     */
+    public static float getPerFrame(Method method, Field field) {
+        synchronized (sLock) {
+            roll(System.nanoTime());
+            if (sLastFrames == 0) return 0;
+            return (float) sLast[method.ordinal() * NUM_FIELDS + field.ordinal()] / sLastFrames;
+        }
+    }
+
+    /**
+     * @return the number of frames since measurements were enabled
+     */
+    public static long getTotalFrames() {
+        synchronized (sLock) {
+            return sTotalFrames;
+        }
+    }
+
+    /**
+     * @return a human-readable table of the totals and per-frame means, one line per method
+     */
+    public static String describe() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sLock) {
+            long frames = Math.max(1, sTotalFrames);
+            sb.append(String.format(Locale.US, "%d frames\n", sTotalFrames));
+
+            for (Method m : Method.values()) {
+                int i = m.ordinal() * NUM_FIELDS;
+                long calls = sTotal[i + Field.CALLS.ordinal()];
+                if (calls == 0) continue;
+                long bytes = sTotal[i + Field.BYTES.ordinal()];
+                long ns = sTotal[i + Field.NS.ordinal()];
+                sb.append(String.format(Locale.US,
+                        "%-26s %8d calls, %6.1f calls/fr, %9.1f B/fr, %8.1f us/fr, %6.1f us/call\n",
+                        m.name(), calls, (float) calls / frames, (float) bytes / frames,
+                        ns / 1e3f / frames, ns / 1e3f / calls));
+            }
+        }
+        return sb.toString();
+    }
+
+    public enum Method {
+        DETECTOR_CREATE,
+        DETECTOR_FRAME,
+        DETECTOR_FRAME_ROI,
+        DETECTOR_DESTROY,
+        GENERATE_CURVE,
+        GENERATE_STRING,
+        GENERATE_RECTANGLE,
+        CALLBACK_LOG,
+        CALLBACK_OBJECTS_DETECTED,
+    }
+
+    public enum Field {
+        CALLS,
+        BYTES,
+        NS,
+    }
+}
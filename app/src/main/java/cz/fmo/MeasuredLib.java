@@ -0,0 +1,122 @@
+package cz.fmo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.graphics.FontRenderer;
+import cz.fmo.graphics.TriangleStripRenderer;
+
+/**
+ * Wrappers of the native methods of Lib that record every call in LibStats. The wrappers have the
+ * same signatures and meaning as the methods they wrap; see Lib for their documentation. Callbacks
+ * passed to a detector are wrapped as well, so that the time spent in them is measured too.
+ */
+public final class MeasuredLib {
+    private MeasuredLib() {
+    }
+
+    /**
+     * @see Lib#detectorCreate(int, int, int, boolean, ByteBuffer, Lib.DetectionBatch,
+     * Lib.Callback)
+     */
+    public static long detectorCreate(int width, int height, int procRes, boolean gray,
+                                      @Nullable ByteBuffer mask,
+                                      @NonNull Lib.DetectionBatch batch,
+                                      @NonNull Lib.Callback cb) {
+        long start = LibStats.begin();
+        long handle = Lib.detectorCreate(width, height, procRes, gray, mask, batch,
+                new MeasuredCallback(cb));
+        LibStats.end(LibStats.Method.DETECTOR_CREATE, start, (mask == null) ? 0 : mask.capacity());
+        return handle;
+    }
+
+    /**
+     * Creates a detector that writes its detections into a DetectionRing.
+     *
+     * @see Lib#detectorCreateRing(int, int, int, boolean, ByteBuffer, ByteBuffer, Lib.Callback)
+     */
+    public static long detectorCreate(int width, int height, int procRes, boolean gray,
+                                      @Nullable ByteBuffer mask, @NonNull DetectionRing ring,
+                                      @NonNull Lib.Callback cb) {
+        long start = LibStats.begin();
+        long handle = Lib.detectorCreateRing(width, height, procRes, gray, mask,
+                ring.getBuffer(), new MeasuredCallback(cb));
+        LibStats.end(LibStats.Method.DETECTOR_CREATE, start, (mask == null) ? 0 : mask.capacity());
+        return handle;
+    }
+
+    public static void detectorFrame(long handle, byte[] dataYUV420SP) {
+        long start = LibStats.begin();
+        Lib.detectorFrame(handle, dataYUV420SP);
+        LibStats.end(LibStats.Method.DETECTOR_FRAME, start, dataYUV420SP.length);
+    }
+
+    public static void detectorFrame(long handle, ByteBuffer dataYUV420SP) {
+        long start = LibStats.begin();
+        Lib.detectorFrame(handle, dataYUV420SP);
+        LibStats.end(LibStats.Method.DETECTOR_FRAME, start, dataYUV420SP.capacity());
+    }
+
+    public static void detectorFrameRoi(long handle, ByteBuffer dataYUV420SP, int[] rects,
+                                        int numRects) {
+        long start = LibStats.begin();
+        Lib.detectorFrameRoi(handle, dataYUV420SP, rects, numRects);
+        LibStats.end(LibStats.Method.DETECTOR_FRAME_ROI, start,
+                dataYUV420SP.capacity() + 4 * 4 * numRects);
+    }
+
+    public static void detectorDestroy(long handle) {
+        long start = LibStats.begin();
+        Lib.detectorDestroy(handle);
+        LibStats.end(LibStats.Method.DETECTOR_DESTROY, start, 0);
+    }
+
+    public static void generateCurve(float[] points, int newest, int count, float[] rgba,
+                                     TriangleStripRenderer.Buffers b) {
+        long start = LibStats.begin();
+        Lib.generateCurve(points, newest, count, rgba, b);
+        LibStats.end(LibStats.Method.GENERATE_CURVE, start, 4 * (points.length + rgba.length));
+    }
+
+    public static void generateString(String str, float x, float y, float h, float[] rgba,
+                                      FontRenderer.Buffers b) {
+        long start = LibStats.begin();
+        Lib.generateString(str, x, y, h, rgba, b);
+        LibStats.end(LibStats.Method.GENERATE_STRING, start, 2 * str.length() + 4 * rgba.length);
+    }
+
+    public static void generateRectangle(float x, float y, float w, float h, float[] rgba,
+                                         FontRenderer.Buffers b) {
+        long start = LibStats.begin();
+        Lib.generateRectangle(x, y, w, h, rgba, b);
+        LibStats.end(LibStats.Method.GENERATE_RECTANGLE, start, 4 * rgba.length);
+    }
+
+    /**
+     * Forwards the callbacks from native code, measuring them using LibStats.
+     */
+    private static class MeasuredCallback implements Lib.Callback {
+        private final Lib.Callback mCb;
+
+        MeasuredCallback(Lib.Callback cb) {
+            mCb = cb;
+        }
+
+        @Override
+        public void log(String message) {
+            long start = LibStats.begin();
+            mCb.log(message);
+            LibStats.end(LibStats.Method.CALLBACK_LOG, start, 2 * message.length());
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+            long start = LibStats.begin();
+            mCb.onObjectsDetected(batch);
+            LibStats.end(LibStats.Method.CALLBACK_OBJECTS_DETECTED, start,
+                    batch.size * LibStats.DETECTION_BYTES);
+        }
+    }
+}
@@ -18,18 +18,32 @@ import android.widget.TextView;
 import java.io.File;
 import java.lang.ref.WeakReference;
 
+import cz.fmo.camera.Camera2Capture;
 import cz.fmo.camera.CameraThread;
+import cz.fmo.camera.CapturePlan;
+import cz.fmo.camera.Frame;
+import cz.fmo.camera.FramePool;
+import cz.fmo.camera.MotionGate;
 import cz.fmo.camera.PreviewCameraTarget;
 import cz.fmo.camera.RecordingCameraTarget;
 import cz.fmo.data.Assets;
 import cz.fmo.data.TrackSet;
+import cz.fmo.detection.DetectionThread;
+import cz.fmo.detection.Downscaler;
+import cz.fmo.detection.PreRollDetector;
 import cz.fmo.recording.AutomaticRecordingTask;
 import cz.fmo.recording.CyclicBuffer;
+import cz.fmo.recording.DetectionLogThread;
 import cz.fmo.recording.EncodeThread;
+import cz.fmo.recording.FrameCaptureThread;
+import cz.fmo.recording.FrameCaptureWriter;
+import cz.fmo.recording.LumaRing;
 import cz.fmo.recording.ManualRecordingTask;
 import cz.fmo.recording.SaveThread;
+import cz.fmo.util.CoalescingChannel;
 import cz.fmo.util.Config;
 import cz.fmo.util.FileManager;
+import cz.fmo.util.Time;
 
 /**
  * The main activity, facilitating video preview, encoding and saving.
@@ -40,12 +54,24 @@ public final class RecordingActivity extends Activity {
     private static final float AUTOMATIC_MARGIN = 2;
     private static final int PREVIEW_SLOWDOWN_FRAMES = 59;
     private static final String FILENAME = "video.mp4";
+    private static final String DETECTION_LOG_FILENAME = "detections.bin";
+    private static final int DETECTION_LOG_STAGING_SIZE = 256 * 1024;
+    private static final int FRAME_CAPTURE_QUEUE_SIZE = 4;
+    private static final int MAX_DETECTIONS = 32;
+    private static final int RESULT_RING_CAPACITY = 16;
     private final Handler mHandler = new Handler(this);
     private final GUI mGUI = new GUI();
     private final FileManager mFileMan = new FileManager(this);
+    private final Lib.DetectionBatch mDetectionBatch = new Lib.DetectionBatch(MAX_DETECTIONS);
     private Config mConfig;
     private Status mStatus = Status.STOPPED;
     private CameraThread mCamera;
+    private volatile DetectionThread mDetection;
+    private DetectionRing mResultRing;
+    private volatile DetectionLogThread mDetectionLog;
+    private volatile FrameCaptureThread mFrameCapture;
+    private LumaRing mLumaRing;
+    private PreRollDetector mPreRoll;
     private EncodeThread mEncode;
     private SaveThread mSaveMovie;
     private SaveThread.Task mSaveTask;
@@ -141,6 +167,7 @@ public final class RecordingActivity extends Activity {
 
         // get configuration settings
         mConfig = new Config(this);
+        LibStats.setEnabled(mConfig.jniStats);
 
         // set up assets
         Assets.getInstance().load(this);
@@ -149,7 +176,17 @@ public final class RecordingActivity extends Activity {
         TrackSet.getInstance().setConfig(mConfig);
 
         // create a dedicated camera input thread
-        mCamera = new CameraThread(mHandler, mConfig);
+        if (mConfig.camera2) {
+            mCamera = new CameraThread(mHandler, new Camera2Capture(this, mHandler, mConfig));
+        } else {
+            mCamera = new CameraThread(mHandler, mConfig);
+        }
+
+        // velocities depend on the frame rate the camera has settled on
+        mConfig.setFrameRate(mCamera.getFrameRate());
+        Log.i(LOG_TAG, "Frame rate: " + mCamera.getFrameRatePlan());
+        CapturePlan plan = mCamera.getCapturePlan();
+        Log.i(LOG_TAG, "Capture plan: " + plan);
 
         // add preview as camera target
         mPreviewTarget = new PreviewCameraTarget(mGUI.getPreviewSurface(),
@@ -179,10 +216,42 @@ public final class RecordingActivity extends Activity {
             setEncodingEnabled(mConfig.recordMode == Config.RecordMode.AUTOMATIC);
         }
 
+        if (mConfig.frameCapture) {
+            // store raw frames for later replay
+            File captureFile = mFileMan.privateOpen(FrameCaptureWriter.FILENAME);
+            mFrameCapture = new FrameCaptureThread(captureFile, mCamera.getWidth(),
+                    mCamera.getHeight(), mConfig.frameCaptureFactor,
+                    mConfig.frameCaptureLimitBytes, FRAME_CAPTURE_QUEUE_SIZE);
+        }
+
         if (!mConfig.disableDetection) {
-            // C++ initialization
-            Lib.detectionStart(mCamera.getWidth(), mCamera.getHeight(), mConfig.procRes,
-                    mConfig.gray, mHandler);
+            // merge detection events, so that the GUI thread is not flooded at high frame rates
+            mHandler.setAutoRecordChannel(mConfig.autoRecordWindowMs);
+
+            if (mConfig.resultRing) {
+                // detections are polled by the camera thread once per rendered frame
+                mResultRing = new DetectionRing(RESULT_RING_CAPACITY, MAX_DETECTIONS);
+            }
+
+            // create a dedicated detection thread, so that the camera is never held up; the thread
+            // takes care of C++ initialization
+            int procRes = (plan == null) ? mConfig.procRes : plan.getProcRes();
+            mDetection = new DetectionThread(mConfig, mCamera.getWidth(), mCamera.getHeight(),
+                    procRes, mDetectionBatch, mHandler, mResultRing);
+
+            if (mConfig.preRollRedetect && mConfig.recordMode == Config.RecordMode.AUTOMATIC) {
+                // keep enough recent frames to re-detect the margin before automatic recordings
+                int factor = Downscaler.factorFor(mCamera.getHeight(), mConfig.preRollProcRes);
+                int maxFrames = (int) Math.ceil(AUTOMATIC_MARGIN * mCamera.getFrameRate()) + 1;
+                mLumaRing = new LumaRing(mCamera.getWidth(), mCamera.getHeight(), factor,
+                        mConfig.preRollMemoryBytes, maxFrames);
+                mDetection.setLumaRing(mLumaRing);
+            }
+
+            if (mConfig.detectionLog) {
+                File logFile = mFileMan.privateOpen(DETECTION_LOG_FILENAME);
+                mDetectionLog = new DetectionLogThread(logFile, DETECTION_LOG_STAGING_SIZE);
+            }
         }
 
         // refresh GUI
@@ -192,6 +261,9 @@ public final class RecordingActivity extends Activity {
         // start threads
         if (mEncode != null) mEncode.start();
         if (mSaveMovie != null) mSaveMovie.start();
+        if (mDetectionLog != null) mDetectionLog.start();
+        if (mFrameCapture != null) mFrameCapture.start();
+        if (mDetection != null) mDetection.start();
         mCamera.start();
     }
 
@@ -202,9 +274,10 @@ public final class RecordingActivity extends Activity {
     protected void onPause() {
         super.onPause();
 
-        Lib.detectionStop();
-
+        // stop the camera first, since its callbacks feed all of the threads below
         if (mCamera != null) {
+            MotionGate gate = mCamera.getMotionGate();
+            FramePool pool = mCamera.getFramePool();
             mCamera.getHandler().sendKill();
             try {
                 mCamera.join();
@@ -212,6 +285,77 @@ public final class RecordingActivity extends Activity {
                 throw new RuntimeException("Interrupted when closing CameraThread");
             }
             mCamera = null;
+
+            if (gate != null) {
+                Log.i(LOG_TAG, "Motion gate: " + (gate.getActiveNs() / 1000000) + " ms active, " +
+                        (gate.getIdleNs() / 1000000) + " ms idle, " + gate.getNumSkipped() +
+                        " frames skipped");
+            }
+
+            if (pool != null) {
+                Log.i(LOG_TAG, "Frame pool: " + pool.getCount() + " of " + pool.getMaxCount() +
+                        " frames, peak " + pool.getPeakInUse() + " in use, " +
+                        pool.getNumStarved() + " starved, mean hold " +
+                        (pool.getMeanHoldNs() / 1000) + " us");
+            }
+        }
+
+        if (mPreRoll != null) {
+            mPreRoll.stopAndJoin();
+            mPreRoll = null;
+        }
+
+        if (mDetection != null) {
+            mDetection.getHandler().sendKill();
+            try {
+                mDetection.join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted when closing DetectionThread");
+            }
+            logDetectionStats(mDetection);
+            mDetection = null;
+
+            if (mResultRing != null) {
+                Log.i(LOG_TAG, "Result ring: " + mResultRing.getNumPublished() + " records, " +
+                        mResultRing.getNumDropped() + " dropped");
+                mResultRing = null;
+            }
+
+            CoalescingChannel channel = mHandler.getAutoRecordChannel();
+            if (channel != null) {
+                Log.i(LOG_TAG, "Auto-record events: " + channel.getNumPosted() + " posted, " +
+                        channel.getNumMerged() + " merged");
+            }
+        }
+
+        if (mDetectionLog != null) {
+            mDetectionLog.getHandler().sendKill();
+            try {
+                mDetectionLog.join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted when closing DetectionLogThread");
+            }
+            Log.i(LOG_TAG, "Detection log: " + mDetectionLog.getNumRecords() + " records, " +
+                    mDetectionLog.getNumDropped() + " dropped, " + mDetectionLog.getSize() +
+                    " bytes");
+            mDetectionLog = null;
+        }
+
+        if (mLumaRing != null) {
+            mLumaRing.release();
+            mLumaRing = null;
+        }
+
+        if (mFrameCapture != null) {
+            mFrameCapture.getHandler().sendKill();
+            try {
+                mFrameCapture.join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted when closing FrameCaptureThread");
+            }
+            Log.i(LOG_TAG, "Frame capture: " + mFrameCapture.getNumFrames() + " frames, " +
+                    mFrameCapture.getNumDropped() + " dropped");
+            mFrameCapture = null;
         }
 
         stopSaving();
@@ -238,26 +382,66 @@ public final class RecordingActivity extends Activity {
 
         TrackSet.getInstance().clear();
 
+        if (LibStats.isEnabled()) {
+            Log.i(LOG_TAG, "Native calls: " + LibStats.describe());
+            LibStats.setEnabled(false);
+        }
+
         mStatus = Status.STOPPED;
     }
 
-    private void triggerAutomaticRecording() {
+    private static void logDetectionStats(DetectionThread d) {
+        Log.i(LOG_TAG, "Detection: " + d.getNumReceived() + " frames received, " +
+                d.getNumProcessed() + " processed, " + d.getNumDropped() + " dropped, " +
+                d.getNumSkipped() + " skipped");
+        Log.i(LOG_TAG, "Detection: stride " + d.getSkipStride() + ", procRes " + d.getProcRes() +
+                ", " + d.getNumBudgetMisses() + " frames over budget, " +
+                d.getMeanPixelsPerFrame() + " ROI pixels per frame, " + d.getNumTiles() +
+                " tiles, " + d.getNumSeamDuplicates() + " seam duplicates");
+        String comparison = d.getComparisonReport();
+        if (comparison != null) Log.i(LOG_TAG, "Comparison: " + comparison);
+    }
+
+    /**
+     * @param eventTime capture time of the frame that triggered the recording, in nanoseconds, or 0
+     *                  if the recording has not been triggered by a detection
+     */
+    private void triggerAutomaticRecording(long eventTime) {
         if (mStatus != Status.RUNNING) return;
         if (mSaveMovie == null) return;
         if (mConfig.recordMode != Config.RecordMode.AUTOMATIC) return;
 
-        boolean extended = (mSaveTask != null) && mSaveTask.extend();
+        long eventTimeUs = eventTime / 1000;
+        boolean extended = (mSaveTask != null) && mSaveTask.extend(eventTimeUs);
 
         if (!extended) {
             File outFile = mFileMan.open(FILENAME);
-            mSaveTask = new AutomaticRecordingTask(AUTOMATIC_MARGIN, outFile, mSaveMovie);
+            mSaveTask = new AutomaticRecordingTask(AUTOMATIC_MARGIN, eventTimeUs, outFile,
+                    mSaveMovie);
+            startPreRollDetection(eventTime);
         }
 
         mGUI.update(GUIUpdate.BUTTONS); // GUI thread only
     }
 
+    /**
+     * Runs detection again over the frames preceding a new automatic recording, unless the previous
+     * run is still in progress.
+     *
+     * @param eventTime capture time of the frame that triggered the recording, or 0 for now
+     */
+    private void startPreRollDetection(long eventTime) {
+        if (mLumaRing == null) return;
+        if (mPreRoll != null && mPreRoll.isAlive()) return;
+
+        if (eventTime <= 0) eventTime = System.nanoTime();
+        long startTime = eventTime - Time.toNs(AUTOMATIC_MARGIN);
+        mPreRoll = new PreRollDetector(mLumaRing, startTime, MAX_DETECTIONS, mHandler);
+        mPreRoll.start();
+    }
+
     public void onForceAutomaticRecording(@SuppressWarnings("UnusedParameters") View view) {
-        triggerAutomaticRecording();
+        triggerAutomaticRecording(0);
     }
 
     public void onStartManualRecording(@SuppressWarnings("UnusedParameters") View view) {
@@ -342,30 +526,70 @@ public final class RecordingActivity extends Activity {
      * typically by forwarding them to the main (GUI) thread.
      */
     private static class Handler extends android.os.Handler implements Lib.Callback,
-            EncodeThread.Callback, SaveThread.Callback, CameraThread.Callback {
+            EncodeThread.Callback, SaveThread.Callback, CameraThread.Callback,
+            PreRollDetector.Callback {
         private static final int CAMERA_ERROR = 2;
         private static final int TRIGGER_AUTO_RECORD = 3;
         private static final int SAVE_COMPLETED = 4;
         private static final int UPDATE_GUI = 5;
         private final WeakReference<RecordingActivity> mActivity;
+        private final Lib.DetectionBatch mRingBatch = new Lib.DetectionBatch(MAX_DETECTIONS);
+        private volatile CoalescingChannel mAutoRecord = null;
+        private volatile long mLatestDetectionTime = 0;
 
         Handler(RecordingActivity activity) {
             mActivity = new WeakReference<>(activity);
         }
 
+        /**
+         * Starts merging the TRIGGER_AUTO_RECORD messages sent within the given window.
+         */
+        void setAutoRecordChannel(long windowMs) {
+            mAutoRecord = new CoalescingChannel(this, TRIGGER_AUTO_RECORD, windowMs);
+        }
+
+        CoalescingChannel getAutoRecordChannel() {
+            return mAutoRecord;
+        }
+
         @Override
         public void log(String message) {
             Log.i(LOG_TAG, message);
         }
 
         @Override
-        public void onObjectsDetected(Lib.Detection[] detections) {
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
             RecordingActivity activity = mActivity.get();
             if (activity == null) return;
             CameraThread cam = activity.mCamera;
             if (cam == null) return;
-            TrackSet.getInstance().addDetections(detections, cam.getWidth(), cam.getHeight());
-            sendMessage(obtainMessage(TRIGGER_AUTO_RECORD));
+            TrackSet.getInstance().addDetections(batch, cam.getWidth(), cam.getHeight());
+            mLatestDetectionTime = batch.timestamp;
+
+            DetectionLogThread log = activity.mDetectionLog;
+            if (log != null) log.append(batch);
+
+            CoalescingChannel channel = mAutoRecord;
+            if (channel != null) {
+                channel.post();
+            } else {
+                sendMessage(obtainMessage(TRIGGER_AUTO_RECORD));
+            }
+        }
+
+        @Override
+        public void onPreRollDetected(Lib.DetectionBatch batch) {
+            RecordingActivity activity = mActivity.get();
+            if (activity == null) return;
+            DetectionLogThread log = activity.mDetectionLog;
+            if (log != null) log.appendPreRoll(batch);
+        }
+
+        @Override
+        public void onPreRollFinished(PreRollDetector detector) {
+            Log.i(LOG_TAG, "Pre-roll: " + detector.getNumProcessed() + " frames processed, " +
+                    detector.getNumOverwritten() + " overwritten, " + detector.getNumDetections() +
+                    " detections");
         }
 
         @Override
@@ -379,16 +603,41 @@ public final class RecordingActivity extends Activity {
 
         @Override
         public void onCameraRender() {
-            // send flush command to encoder thread
+            LibStats.onFrame();
             RecordingActivity activity = mActivity.get();
             if (activity == null) return;
+
+            // collect detections written into the result ring since the last frame
+            DetectionRing ring = activity.mResultRing;
+            if (ring != null) {
+                while (ring.poll(mRingBatch)) {
+                    onObjectsDetected(mRingBatch);
+                }
+            }
+
+            // send flush command to encoder thread
             if (activity.mEncode == null) return;
             activity.mEncode.getHandler().sendFlush();
         }
 
         @Override
-        public void onCameraFrame(byte[] dataYUV420SP) {
-            Lib.detectionFrame(dataYUV420SP);
+        public void onCameraFrame(Frame frame) {
+            RecordingActivity activity = mActivity.get();
+            FrameCaptureThread capture = (activity == null) ? null : activity.mFrameCapture;
+
+            if (capture != null) {
+                frame.retain();
+                capture.submit(frame);
+            }
+
+            DetectionThread detection = (activity == null) ? null : activity.mDetection;
+
+            if (detection == null) {
+                frame.recycle();
+                return;
+            }
+
+            detection.submit(frame);
         }
 
         @Override
@@ -408,7 +657,9 @@ public final class RecordingActivity extends Activity {
                     activity.mGUI.update(GUIUpdate.ALL);
                     break;
                 case TRIGGER_AUTO_RECORD:
-                    activity.triggerAutomaticRecording();
+                    CoalescingChannel channel = mAutoRecord;
+                    if (channel != null) channel.onDelivered();
+                    activity.triggerAutomaticRecording(mLatestDetectionTime);
                     break;
                 case SAVE_COMPLETED:
                     activity.onSaveCompleted((File) msg.obj, msg.arg1 == 1);
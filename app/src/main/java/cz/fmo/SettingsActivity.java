@@ -12,11 +12,15 @@ import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NavUtils;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import java.util.List;
 
+import cz.fmo.util.DetectionZones;
+
 public class SettingsActivity extends PreferenceActivity {
     private static SummaryUpdater sSummaryUpdater = new SummaryUpdater();
+    private static ZoneValidator sZoneValidator = new ZoneValidator();
 
     private static void bindToSummaryUpdater(Preference preference, SummaryUpdater updater) {
         preference.setOnPreferenceChangeListener(updater);
@@ -89,6 +93,25 @@ public class SettingsActivity extends PreferenceActivity {
         }
     }
 
+    /**
+     * Rejects malformed detection zone definitions and summarizes the valid ones.
+     */
+    private static class ZoneValidator extends SummaryUpdater {
+        @Override
+        public boolean onPreferenceChange(Preference preference, Object value) {
+            float[][] zones = DetectionZones.parse(value.toString());
+
+            if (zones == null) {
+                Toast.makeText(preference.getContext(), R.string.prefDetectionZonesError,
+                        Toast.LENGTH_LONG).show();
+                return false;
+            }
+
+            preference.setSummary(DetectionZones.describe(zones));
+            return true;
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public static class PreferenceFragmentBase extends PreferenceFragment {
         private int mXmlResourceId = -1;
@@ -122,7 +145,10 @@ public class SettingsActivity extends PreferenceActivity {
             super.onCreate(savedInstanceState);
             bindToSummaryUpdater(findPreference("cameraFacing"), sSummaryUpdater);
             bindToSummaryUpdater(findPreference("resolution"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("captureFrameRate"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("framePoolMemory"), sSummaryUpdater);
             bindToSummaryUpdater(findPreference("recordMode"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("autoRecordWindow"), sSummaryUpdater);
         }
     }
 
@@ -133,6 +159,18 @@ public class SettingsActivity extends PreferenceActivity {
             super.onCreate(savedInstanceState);
             bindToSummaryUpdater(findPreference("colorSpace"), sSummaryUpdater);
             bindToSummaryUpdater(findPreference("procRes"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("tileThreads"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("frameBudget"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("motionThreshold"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("idleFrameRate"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("detectionQueueSize"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("dropPolicy"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("trackLength"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("detectionZones"), sZoneValidator);
+            bindToSummaryUpdater(findPreference("compareProcRes"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("compareColorSpace"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("preRollProcRes"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("preRollMemory"), sSummaryUpdater);
         }
     }
 
@@ -144,7 +182,6 @@ public class SettingsActivity extends PreferenceActivity {
             bindToSummaryUpdater(findPreference("velocityEstimationMode"), sSummaryUpdater);
             bindToSummaryUpdater(findPreference("objectDiameterPicker"), sSummaryUpdater);
             bindToSummaryUpdater(findPreference("objectDiameterCustom"), sSummaryUpdater);
-            bindToSummaryUpdater(findPreference("frameRate"), sSummaryUpdater);
         }
     }
 
@@ -153,6 +190,8 @@ public class SettingsActivity extends PreferenceActivity {
         public void onCreate(Bundle savedInstanceState) {
             super.setXmlResourceId(R.xml.pref_advanced);
             super.onCreate(savedInstanceState);
+            bindToSummaryUpdater(findPreference("frameCaptureFactor"), sSummaryUpdater);
+            bindToSummaryUpdater(findPreference("frameCaptureLimit"), sSummaryUpdater);
         }
     }
 }
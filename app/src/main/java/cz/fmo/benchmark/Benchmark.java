@@ -0,0 +1,15 @@
+package cz.fmo.benchmark;
+
+import cz.fmo.Lib;
+
+/**
+ * A benchmark implemented on the Java side. Results are reported as lines of text using the log()
+ * method of the provided callback, the same way the native benchmarks do it.
+ */
+public interface Benchmark {
+    /**
+     * Runs the benchmark. Implementations should check Thread.interrupted() between iterations and
+     * return early if the thread has been interrupted.
+     */
+    void run(Lib.Callback cb);
+}
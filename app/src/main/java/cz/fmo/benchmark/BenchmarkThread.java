@@ -0,0 +1,51 @@
+package cz.fmo.benchmark;
+
+import cz.fmo.Lib;
+
+/**
+ * Runs the Java-side benchmarks one after another, then starts the native benchmarks. Use
+ * stopAndJoin() to interrupt the run.
+ */
+public class BenchmarkThread extends Thread {
+    private final Lib.Callback mCb;
+    private final Benchmark[] mBenchmarks;
+    private volatile boolean mStopped = false;
+    private boolean mNativeStarted = false;
+
+    public BenchmarkThread(Lib.Callback cb, Benchmark... benchmarks) {
+        super("BenchmarkThread");
+        mCb = cb;
+        mBenchmarks = benchmarks;
+    }
+
+    @Override
+    public void run() {
+        for (Benchmark benchmark : mBenchmarks) {
+            if (mStopped) return;
+            benchmark.run(mCb);
+        }
+
+        synchronized (this) {
+            if (mStopped) return;
+            Lib.benchmarkingStart(mCb);
+            mNativeStarted = true;
+        }
+    }
+
+    /**
+     * Interrupts the Java-side benchmarks, stops the native benchmarks and waits for the thread to
+     * finish.
+     */
+    public void stopAndJoin() {
+        synchronized (this) {
+            mStopped = true;
+            if (mNativeStarted) Lib.benchmarkingStop();
+        }
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted when closing BenchmarkThread");
+        }
+    }
+}
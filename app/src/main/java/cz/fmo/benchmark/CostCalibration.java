@@ -0,0 +1,101 @@
+package cz.fmo.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+import cz.fmo.detection.CostModel;
+
+/**
+ * Calibrates the cost model used to plan the capture size and the processing resolution. Every
+ * combination of a capture size and a downscaling factor is timed on synthetic frames, counting
+ * both the copy of the frame into a direct buffer and the detection; the model is fitted to the
+ * measurements and stored in the preferences.
+ */
+public class CostCalibration implements Benchmark {
+    private static final int[][] SIZES = {{1280, 720}, {1920, 1080}};
+    private static final int[] FACTORS = {2, 3, 4};
+    private static final int WARMUP_FRAMES = 5;
+    private static final int FRAMES = 30;
+    private static final int MAX_DETECTIONS = 32;
+    private final SharedPreferences mPrefs;
+
+    /**
+     * @param prefs preferences to store the fitted model into
+     */
+    public CostCalibration(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    @Override
+    public void run(Lib.Callback cb) {
+        cb.log("Cost model calibration\n");
+        int[][] shapes = new int[SIZES.length * FACTORS.length][];
+        long[] ns = new long[shapes.length];
+
+        for (int s = 0, i = 0; s < SIZES.length; s++) {
+            int width = SIZES[s][0];
+            int height = SIZES[s][1];
+            byte[] array = new byte[width * height * 3 / 2];
+            ByteBuffer frame = ByteBuffer.allocateDirect(array.length);
+
+            for (int factor : FACTORS) {
+                shapes[i] = new int[]{width, height, width / factor, height / factor};
+                ns[i] = measure(array, frame, width, height, height / factor);
+                if (ns[i] < 0) return;
+
+                cb.log(String.format(Locale.US, "  %dx%d procRes %d %8.1f us/frame\n", width,
+                        height, height / factor, ns[i] / 1e3f));
+                i++;
+            }
+        }
+
+        CostModel model = CostModel.fit(shapes, ns);
+        if (model == null) {
+            cb.log("  fit failed, model not changed\n");
+            return;
+        }
+
+        model.save(mPrefs);
+        cb.log("  " + model + "\n");
+    }
+
+    /**
+     * @return mean time per frame in nanoseconds, or -1 if interrupted
+     */
+    private long measure(byte[] array, ByteBuffer frame, int width, int height, int procRes) {
+        Lib.DetectionBatch batch = new Lib.DetectionBatch(MAX_DETECTIONS);
+        long detector = MeasuredLib.detectorCreate(width, height, procRes, false, null, batch,
+                new Lib.Callback() {
+                    @Override
+                    public void log(String message) {
+                    }
+
+                    @Override
+                    public void onObjectsDetected(Lib.DetectionBatch batch) {
+                    }
+                });
+
+        try {
+            long total = 0;
+            for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+                if (Thread.interrupted()) return -1;
+
+                // frame generation is not measured
+                SyntheticFrames.fill(array, width, height, i);
+
+                long start = System.nanoTime();
+                frame.clear();
+                frame.put(array);
+                MeasuredLib.detectorFrame(detector, frame);
+                if (i >= WARMUP_FRAMES) total += System.nanoTime() - start;
+            }
+            return total / FRAMES;
+        } finally {
+            MeasuredLib.detectorDestroy(detector);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cz.fmo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.detection.Downscaler;
+
+/**
+ * Measures the Java-side downscaling stage for each processing resolution preset, using a single
+ * thread and using all cores. Gray mode (luma only) and color mode are measured separately.
+ */
+public class DownscaleBenchmark implements Benchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int[] PROC_RES = {150, 300, 600};
+    private static final int WARMUP_FRAMES = 10;
+    private static final int FRAMES = 100;
+    private final ByteBuffer mFrame = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 / 2);
+
+    @Override
+    public void run(Lib.Callback cb) {
+        byte[] array = new byte[mFrame.capacity()];
+        SyntheticFrames.fill(array, WIDTH, HEIGHT, 0);
+        mFrame.put(array);
+        mFrame.clear();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        cb.log(String.format(Locale.US, "Downscaling, %dx%d NV21, %d cores\n", WIDTH, HEIGHT,
+                cores));
+
+        for (int procRes : PROC_RES) {
+            int factor = Downscaler.factorFor(HEIGHT, procRes);
+            if (factor < 2) continue;
+
+            for (boolean gray : new boolean[]{true, false}) {
+                long single = measure(factor, gray, 1);
+                long parallel = measure(factor, gray, cores);
+                if (single < 0 || parallel < 0) return;
+
+                cb.log(String.format(Locale.US, "  procRes %d %-5s 1x %7.1f us, %dx %7.1f us\n",
+                        procRes, gray ? "gray" : "color", single / 1e3f, cores, parallel / 1e3f));
+            }
+        }
+    }
+
+    /**
+     * @return mean time per frame in nanoseconds, or -1 if interrupted
+     */
+    private long measure(int factor, boolean gray, int numThreads) {
+        Downscaler downscaler = new Downscaler(WIDTH, HEIGHT, factor, gray, numThreads);
+
+        try {
+            long start = 0;
+            for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+                if (Thread.interrupted()) return -1;
+                if (i == WARMUP_FRAMES) start = System.nanoTime();
+                downscaler.process(mFrame);
+            }
+            return (System.nanoTime() - start) / FRAMES;
+        } finally {
+            downscaler.release();
+        }
+    }
+}
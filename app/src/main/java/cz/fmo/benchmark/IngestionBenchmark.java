@@ -0,0 +1,82 @@
+package cz.fmo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+
+/**
+ * Measures the per-frame cost of handing a full-resolution frame over to the detector, comparing
+ * the byte[] variant of Lib.detectionFrame() with the direct-buffer variant. The direct-buffer
+ * variant is measured both with and without the Java-side copy that CameraCapture performs.
+ */
+public class IngestionBenchmark implements Benchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int PROC_RES = 300;
+    private static final int WARMUP_FRAMES = 10;
+    private static final int FRAMES = 100;
+    private static final int MAX_DETECTIONS = 32;
+    private final byte[] mArray = new byte[WIDTH * HEIGHT * 3 / 2];
+    private final ByteBuffer mDirect = ByteBuffer.allocateDirect(mArray.length);
+
+    @Override
+    public void run(Lib.Callback cb) {
+        SyntheticFrames.fill(mArray, WIDTH, HEIGHT, 0);
+        Lib.DetectionBatch batch = new Lib.DetectionBatch(MAX_DETECTIONS);
+        Lib.detectionStart(WIDTH, HEIGHT, PROC_RES, false, null, batch, new Lib.Callback() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void onObjectsDetected(Lib.DetectionBatch batch) {
+            }
+        });
+
+        try {
+            cb.log(String.format(Locale.US, "Frame ingestion, %dx%d NV21, procRes %d\n", WIDTH,
+                    HEIGHT, PROC_RES));
+            report(cb, "byte[]", measure(Mode.ARRAY));
+            report(cb, "direct", measure(Mode.DIRECT));
+            report(cb, "copy + direct", measure(Mode.COPY_DIRECT));
+        } finally {
+            Lib.detectionStop();
+        }
+    }
+
+    private void report(Lib.Callback cb, String name, long ns) {
+        if (ns < 0) return;
+        cb.log(String.format(Locale.US, "  %-14s %8.1f us/frame\n", name, ns / 1e3f));
+    }
+
+    /**
+     * @return mean time per frame in nanoseconds, or -1 if interrupted
+     */
+    private long measure(Mode mode) {
+        long start = 0;
+        for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+            if (Thread.interrupted()) return -1;
+            if (i == WARMUP_FRAMES) start = System.nanoTime();
+
+            if (mode == Mode.ARRAY) {
+                Lib.detectionFrame(mArray);
+                continue;
+            }
+
+            if (mode == Mode.COPY_DIRECT) {
+                mDirect.clear();
+                mDirect.put(mArray);
+                mDirect.clear();
+            }
+            Lib.detectionFrame(mDirect);
+        }
+        return (System.nanoTime() - start) / FRAMES;
+    }
+
+    private enum Mode {
+        ARRAY,
+        DIRECT,
+        COPY_DIRECT,
+    }
+}
@@ -0,0 +1,66 @@
+package cz.fmo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.recording.FrameCaptureReader;
+import cz.fmo.recording.FrameReplay;
+
+/**
+ * Replays a capture file through the detector as fast as possible and reports the throughput along
+ * with a digest of the detector output, so that runs on different builds and devices can be
+ * compared directly. Finally, the default configuration is compared with a cheaper one on the same
+ * frames.
+ */
+public class ReplayBenchmark implements Benchmark {
+    private static final int[] PROC_RES = {150, 300, 600};
+    private static final int COMPARE_PROC_RES_A = 300;
+    private static final int COMPARE_PROC_RES_B = 150;
+    private static final int MAX_DETECTIONS = 32;
+    private static final Lib.Callback SILENT = new Lib.Callback() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+        }
+    };
+    private final File mFile;
+
+    /**
+     * @param file capture file written by FrameCaptureWriter
+     */
+    public ReplayBenchmark(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public void run(Lib.Callback cb) {
+        FrameCaptureReader reader;
+        try {
+            reader = new FrameCaptureReader(mFile);
+        } catch (IOException e) {
+            cb.log("Replay: cannot read " + mFile.getName() + "\n");
+            return;
+        }
+
+        cb.log(String.format(Locale.US, "Replay, %d frames %dx%d\n", reader.getNumFrames(),
+                reader.getWidth(), reader.getHeight()));
+
+        for (int procRes : PROC_RES) {
+            FrameReplay replay = new FrameReplay(reader, MAX_DETECTIONS, false, SILENT);
+            if (!replay.run(procRes, false)) return;
+            cb.log(String.format(Locale.US, "  procRes %d %8.1f us/frame, %d detections, %016x\n",
+                    procRes, replay.getMeanDetectionNs() / 1e3f, replay.getNumDetections(),
+                    replay.getDigest()));
+        }
+
+        FrameReplay replay = new FrameReplay(reader, MAX_DETECTIONS, false, SILENT);
+        String report = replay.compare(COMPARE_PROC_RES_A, false, COMPARE_PROC_RES_B, false);
+        if (report == null) return;
+        cb.log("  comparison " + report + "\n");
+    }
+}
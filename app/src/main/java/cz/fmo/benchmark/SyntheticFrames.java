@@ -0,0 +1,38 @@
+package cz.fmo.benchmark;
+
+/**
+ * Generates artificial NV21 frames for benchmarking: a textured background with a bright disk
+ * moving across it, so that the detector has something to find.
+ */
+final class SyntheticFrames {
+    private SyntheticFrames() {
+    }
+
+    /**
+     * @param data   NV21 buffer to fill, at least width * height * 3 / 2 bytes long
+     * @param width  image width
+     * @param height image height
+     * @param index  frame number, determines the position of the disk
+     */
+    static void fill(byte[] data, int width, int height, int index) {
+        int radius = Math.max(2, height / 60);
+        int cx = (index * 4 * radius) % width;
+        int cy = height / 2;
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int dy = y - cy;
+            for (int x = 0; x < width; x++) {
+                int dx = x - cx;
+                boolean disk = dx * dx + dy * dy <= radius * radius;
+                data[row + x] = (byte) (disk ? 250 : 64 + ((x ^ y) & 31));
+            }
+        }
+
+        int uvSize = (width * height) / 2;
+        int uvStart = width * height;
+        for (int i = 0; i < uvSize; i++) {
+            data[uvStart + i] = (byte) 128;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cz.fmo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.detection.TileDetector;
+
+/**
+ * Measures how tile-parallel detection scales with the number of threads. Each configuration
+ * processes the same sequence of synthetic frames; the time per frame, the speedup over a single
+ * thread and the number of detections after seam deduplication are reported.
+ */
+public class TileBenchmark implements Benchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int PROC_RES = 600;
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int WARMUP_FRAMES = 10;
+    private static final int FRAMES = 100;
+    private static final int MAX_DETECTIONS = 32;
+    private final byte[] mArray = new byte[WIDTH * HEIGHT * 3 / 2];
+    private final ByteBuffer mFrame = ByteBuffer.allocateDirect(mArray.length);
+    private long mNumDetections;
+
+    @Override
+    public void run(Lib.Callback cb) {
+        cb.log(String.format(Locale.US, "Tile-parallel detection, %dx%d NV21, procRes %d, " +
+                "%d cores\n", WIDTH, HEIGHT, PROC_RES, Runtime.getRuntime().availableProcessors()));
+        long single = 0;
+
+        for (int numThreads : THREADS) {
+            long ns = measure(numThreads);
+            if (ns < 0) return;
+            if (numThreads == 1) single = ns;
+
+            cb.log(String.format(Locale.US, "  %d threads %8.1f us/frame, %4.2fx, %d detections\n",
+                    numThreads, ns / 1e3f, (float) single / ns, mNumDetections));
+        }
+    }
+
+    /**
+     * @return mean time per frame in nanoseconds, or -1 if interrupted
+     */
+    private long measure(int numThreads) {
+        mNumDetections = 0;
+        Lib.DetectionBatch batch = new Lib.DetectionBatch(MAX_DETECTIONS);
+        TileDetector detector = new TileDetector(WIDTH, HEIGHT, PROC_RES, false, null, numThreads,
+                batch, new Lib.Callback() {
+                    @Override
+                    public void log(String message) {
+                    }
+
+                    @Override
+                    public void onObjectsDetected(Lib.DetectionBatch batch) {
+                        mNumDetections += batch.size;
+                    }
+                });
+
+        try {
+            long total = 0;
+            for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+                if (Thread.interrupted()) return -1;
+                if (i == WARMUP_FRAMES) mNumDetections = 0;
+
+                // frame generation is not measured
+                SyntheticFrames.fill(mArray, WIDTH, HEIGHT, i);
+                mFrame.clear();
+                mFrame.put(mArray);
+
+                long start = System.nanoTime();
+                detector.process(mFrame, i);
+                if (i >= WARMUP_FRAMES) total += System.nanoTime() - start;
+            }
+            return total / FRAMES;
+        } finally {
+            detector.release();
+        }
+    }
+}
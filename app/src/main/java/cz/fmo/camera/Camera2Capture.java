@@ -0,0 +1,468 @@
+package cz.fmo.camera;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import cz.fmo.util.Config;
+
+/**
+ * A frame source built on the camera2 API.
+ * <p>
+ * Raw data is received from an ImageReader in the YUV_420_888 format, whose planes are direct
+ * buffers, and converted into NV21 frames taken from a pool, without a detour through a heap
+ * array. Frames carry the sensor timestamp of the start of exposure, converted to the time base
+ * of System.nanoTime() if the sensor uses a different one. The frame rate is set using a target
+ * range for auto-exposure, which is chosen the same way as the preview range of CameraCapture.
+ * <p>
+ * Opening the camera is asynchronous; camera events and images are handled on a background thread
+ * owned by this class, and all camera objects are only touched on that thread.
+ */
+public class Camera2Capture implements FrameSource, ImageReader.OnImageAvailableListener {
+    private static final int NUM_BUFFERS = 4;
+    private static final int NUM_IMAGES = 3;
+    private final Callback mCb;
+    private final Config mConfig;
+    private final CameraManager mManager;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final int mPreferWidth;
+    private final int mPreferHeight;
+    private String mCameraId = null;
+    private CameraCharacteristics mCharacteristics;
+    private Size mSize = null;
+    private Range<Integer> mFpsRange = null;
+    private float mFrameRate = CameraCapture.PREFER_FRAME_RATE;
+    private FrameRatePlan mFrameRatePlan = null;
+    private CapturePlan mCapturePlan = null;
+    private long mTimeOffset = 0;
+    private ImageReader mReader = null;
+    private Surface mPreviewSurface = null;
+    private CameraDevice mDevice = null;
+    private CameraCaptureSession mSession = null;
+    private FramePool mFramePool = null;
+    private MotionGate mMotionGate = null;
+    private volatile boolean mReleased = false;
+
+    /**
+     * Selects a suitable camera and decides on the size and the frame rate. The camera is opened
+     * by start(). The provided callback is used to report errors and provide image data.
+     */
+    public Camera2Capture(Context context, @Nullable Callback cb, Config config) {
+        mCb = cb;
+        mConfig = config;
+        mPreferWidth = config.highResolution ? 1920 : 1280;
+        mPreferHeight = config.highResolution ? 1080 : 720;
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mThread = new HandlerThread("Camera2Capture");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        try {
+            selectCamera();
+        } catch (CameraAccessException e) {
+            mCameraId = null;
+        }
+
+        if (mCameraId == null) {
+            if (mCb != null) mCb.onCameraError();
+            return;
+        }
+
+        configureSize();
+        configureFrameRate();
+    }
+
+    /**
+     * Picks the first camera facing the preferred direction, or the first camera if there is no
+     * such camera.
+     */
+    private void selectCamera() throws CameraAccessException {
+        int preferredFacing = mConfig.frontFacing ? CameraMetadata.LENS_FACING_FRONT :
+                CameraMetadata.LENS_FACING_BACK;
+
+        for (String id : mManager.getCameraIdList()) {
+            CameraCharacteristics c = mManager.getCameraCharacteristics(id);
+            Integer facing = c.get(CameraCharacteristics.LENS_FACING);
+
+            if (mCameraId == null || (facing != null && facing == preferredFacing)) {
+                mCameraId = id;
+                mCharacteristics = c;
+            }
+            if (facing != null && facing == preferredFacing) return;
+        }
+    }
+
+    /**
+     * Chooses the YUV output size to go with the processing resolution using a CapturePlan. If the
+     * chosen size is not found among the supported ones, the first supported size is used.
+     *
+     * @throws RuntimeException if the camera supports no YUV output size
+     */
+    private void configureSize() {
+        StreamConfigurationMap map =
+                mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = (map == null) ? null : map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (sizes == null || sizes.length == 0) {
+            throw new RuntimeException("Cannot find a YUV output size");
+        }
+
+        ArrayList<int[]> list = new ArrayList<>();
+        for (Size size : sizes) {
+            list.add(new int[]{size.getWidth(), size.getHeight()});
+        }
+
+        mCapturePlan = new CapturePlan(mConfig, mPreferWidth, mPreferHeight);
+        int[] best = mCapturePlan.select(list);
+        for (Size size : sizes) {
+            if (best != null && size.getWidth() == best[0] && size.getHeight() == best[1]) {
+                mSize = size;
+            }
+        }
+        if (mSize == null) mSize = sizes[0];
+    }
+
+    /**
+     * Chooses the auto-exposure target frame rate range using a FrameRatePlan. Constrained
+     * high-speed sessions are not used, since they do not allow CPU-readable YUV outputs.
+     */
+    private void configureFrameRate() {
+        Range<Integer>[] ranges =
+                mCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return;
+        ArrayList<int[]> list = new ArrayList<>();
+        for (Range<Integer> range : ranges) {
+            list.add(new int[]{range.getLower(), range.getUpper()});
+        }
+
+        mFrameRatePlan = new FrameRatePlan(mConfig, mSize.getWidth(), mSize.getHeight(),
+                mCapturePlan.getPredictedNs());
+        int[] best = mFrameRatePlan.select(list, 1);
+        if (best == null) return;
+        mFpsRange = new Range<>(best[0], best[1]);
+        // the upper bound is the rate the camera delivers whenever the exposure allows it
+        mFrameRate = best[1];
+    }
+
+    @Override
+    public void start(@NonNull SurfaceTexture outputTexture) {
+        if (mCameraId == null) return;
+        int width = mSize.getWidth();
+        int height = mSize.getHeight();
+
+        if (isRealtimeTimestampSource()) {
+            // sensor timestamps use the elapsedRealtime() time base
+            mTimeOffset = System.nanoTime() - SystemClock.elapsedRealtimeNanos();
+        }
+
+        if (mCb != null) {
+            mFramePool = new FramePool(NUM_BUFFERS, width * height * 3 / 2,
+                    mConfig.framePoolMemoryBytes);
+            if (mConfig.motionGating) {
+                mMotionGate = new MotionGate(width, height, mFrameRate, mConfig.motionThreshold,
+                        mConfig.idleFrameRate);
+            }
+            mReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, NUM_IMAGES);
+            mReader.setOnImageAvailableListener(this, mHandler);
+        }
+
+        outputTexture.setDefaultBufferSize(width, height);
+        mPreviewSurface = new Surface(outputTexture);
+
+        try {
+            mManager.openCamera(mCameraId, mDeviceCallback, mHandler);
+        } catch (CameraAccessException e) {
+            if (mCb != null) mCb.onCameraError();
+        } catch (SecurityException e) {
+            if (mCb != null) mCb.onCameraError();
+        }
+    }
+
+    /**
+     * @return whether the sensor timestamps are known to use the elapsedRealtime() time base; the
+     * timestamp source cannot be queried before API 23, where it is treated as unknown
+     */
+    private boolean isRealtimeTimestampSource() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return false;
+        Integer source = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        return source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    private final CameraDevice.StateCallback mDeviceCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            if (mReleased) {
+                camera.close();
+                return;
+            }
+
+            mDevice = camera;
+            ArrayList<Surface> targets = new ArrayList<>();
+            targets.add(mPreviewSurface);
+            if (mReader != null) targets.add(mReader.getSurface());
+
+            try {
+                mDevice.createCaptureSession(targets, mSessionCallback, mHandler);
+            } catch (CameraAccessException e) {
+                if (mCb != null) mCb.onCameraError();
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            camera.close();
+            mDevice = null;
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            camera.close();
+            mDevice = null;
+            if (mCb != null) mCb.onCameraError();
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback =
+            new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    if (mDevice == null) return;
+                    mSession = session;
+
+                    try {
+                        session.setRepeatingRequest(makeRequest(), null, mHandler);
+                    } catch (CameraAccessException e) {
+                        if (mCb != null) mCb.onCameraError();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    if (mCb != null) mCb.onCameraError();
+                }
+            };
+
+    private CaptureRequest makeRequest() throws CameraAccessException {
+        CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+        builder.addTarget(mPreviewSurface);
+        if (mReader != null) builder.addTarget(mReader.getSurface());
+        if (mFpsRange != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+
+        // focus mode: set to continuous video if available
+        int[] modes = mCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (modes != null) {
+            for (int mode : modes) {
+                if (mode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) {
+                    builder.set(CaptureRequest.CONTROL_AF_MODE, mode);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Receives the newest image, converts it into a pooled frame and hands the frame over to the
+     * callback. Older images that are still waiting are dropped, and so is the image if there is
+     * no free frame in the pool, or if the motion gate decides to skip it.
+     */
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        Frame frame = null;
+
+        try {
+            Image.Plane[] planes = image.getPlanes();
+            Image.Plane luma = planes[0];
+            if (mMotionGate != null && !mMotionGate.accept(luma.getBuffer(), luma.getRowStride())) {
+                return;
+            }
+
+            frame = mFramePool.acquire();
+            if (frame == null) return;
+            convert(planes, frame.getData());
+            frame.setTimestamp(image.getTimestamp() + mTimeOffset);
+        } finally {
+            image.close();
+        }
+
+        mCb.onCameraFrame(frame);
+    }
+
+    /**
+     * Writes the planes of a YUV_420_888 image into a buffer in NV21 layout. Luma rows are copied
+     * using bulk transfers between the direct buffers; chroma is interleaved byte by byte using
+     * absolute reads and writes, so no data passes through the Java heap.
+     */
+    private void convert(Image.Plane[] planes, ByteBuffer out) {
+        int width = mSize.getWidth();
+        int height = mSize.getHeight();
+        ByteBuffer dst = out.duplicate();
+        dst.clear();
+
+        ByteBuffer y = planes[0].getBuffer().duplicate();
+        int yRowStride = planes[0].getRowStride();
+        for (int row = 0; row < height; row++) {
+            y.limit(row * yRowStride + width);
+            y.position(row * yRowStride);
+            dst.put(y);
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uRowStride = planes[1].getRowStride();
+        int vRowStride = planes[2].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vPixelStride = planes[2].getPixelStride();
+
+        for (int row = 0, o = width * height; row < height / 2; row++, o += width) {
+            int iu = row * uRowStride;
+            int iv = row * vRowStride;
+            for (int x = 0; x < width; x += 2, iu += uPixelStride, iv += vPixelStride) {
+                dst.put(o + x, v.get(iv));
+                dst.put(o + x + 1, u.get(iu));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession != null) {
+                    mSession.close();
+                    mSession = null;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void release() {
+        if (mReleased) return;
+
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mReleased = true;
+
+                if (mSession != null) {
+                    mSession.close();
+                    mSession = null;
+                }
+
+                if (mDevice != null) {
+                    mDevice.close();
+                    mDevice = null;
+                }
+
+                if (mReader != null) {
+                    mReader.close();
+                    mReader = null;
+                }
+            }
+        });
+
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted when closing Camera2Capture");
+        }
+
+        if (mPreviewSurface != null) {
+            mPreviewSurface.release();
+            mPreviewSurface = null;
+        }
+    }
+
+    /**
+     * Runs a task on the background thread and waits until it is done.
+     */
+    private void runAndWait(Runnable task) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Runnable wrapped = task;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                wrapped.run();
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted when waiting for Camera2Capture");
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mSize.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mSize.getHeight();
+    }
+
+    @Override
+    public float getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public long getTimeOffset() {
+        return mTimeOffset;
+    }
+
+    @Nullable
+    @Override
+    public MotionGate getMotionGate() {
+        return mMotionGate;
+    }
+
+    @Nullable
+    @Override
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    @Nullable
+    @Override
+    public FrameRatePlan getFrameRatePlan() {
+        return mFrameRatePlan;
+    }
+
+    @Nullable
+    @Override
+    public CapturePlan getCapturePlan() {
+        return mCapturePlan;
+    }
+}
@@ -3,37 +3,41 @@ package cz.fmo.camera;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
-import android.media.MediaCodecInfo.CodecCapabilities;
-import android.media.MediaFormat;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+
 import cz.fmo.util.Config;
 
 /**
- * A class encapsulating android.hardware.Camera.
+ * A frame source encapsulating android.hardware.Camera.
  * <p>
  * On construction, the best camera (according to preferred parameters) is selected. Use the start()
  * to start receiving frames into the provided SurfaceTexture. Additionally, raw data can be
- * received using the onCameraFrame() method of the callback.
+ * received using the onCameraFrame() method of the callback. Raw data is handed over in direct
+ * buffers taken from a pool owned by this class, so that native code can read it in place.
  * <p>
  * To stop receiving frames, call the release() method.
  */
 @SuppressWarnings("deprecation")
-class CameraCapture implements Camera.PreviewCallback {
-    private static final String MIME_TYPE = "video/avc";
-    private static final float PREFER_FRAME_RATE = 30.f; // frames per second
-    private static final int PREFER_BIT_RATE = 6 * 1024 * 1024; // bits per second
-    private static final int PREFER_I_FRAME_INTERVAL = 1; // seconds
+class CameraCapture implements FrameSource, Camera.PreviewCallback {
+    static final float PREFER_FRAME_RATE = 30.f; // standard frames per second
     private static final int IMAGE_FORMAT = ImageFormat.NV21;
     private static final int BITS_PER_PIXEL = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
+    private static final int NUM_BUFFERS = 4;
     private final Callback mCb;
     private final int mPreferWidth;
     private final int mPreferHeight;
     private final boolean mPreferFrontFacing;
+    private final Config mConfig;
     private Camera mCamera;
     private Camera.Size mSize = null;
-    private float mFrameRate = 0;
+    private FramePool mFramePool = null;
+    private MotionGate mMotionGate = null;
+    private float mFrameRate = PREFER_FRAME_RATE;
+    private FrameRatePlan mFrameRatePlan = null;
+    private CapturePlan mCapturePlan = null;
     private boolean mStarted = false;
     private boolean mReleased = false;
 
@@ -46,6 +50,7 @@ class CameraCapture implements Camera.PreviewCallback {
         mPreferWidth = config.highResolution ? 1920 : 1280;
         mPreferHeight = config.highResolution ? 1080 : 720;
         mPreferFrontFacing = config.frontFacing;
+        mConfig = config;
         int bestCam = selectCamera();
 
         if (bestCam < 0) {
@@ -77,22 +82,20 @@ class CameraCapture implements Camera.PreviewCallback {
     }
 
     /**
-     * Modifies camera width and height parameters. Lists all supported sizes and chooses the size
-     * that is closest to PREFER_WIDTH x PREFER_HEIGHT.
+     * Modifies camera width and height parameters. Lists all supported sizes and lets a
+     * CapturePlan choose the size to go with the processing resolution.
      */
     private void configureSize(Camera.Parameters params) {
-        Camera.Size bestSize = null;
-        int bestScore = Integer.MAX_VALUE;
-
+        ArrayList<int[]> list = new ArrayList<>();
         for (Camera.Size size : params.getSupportedPreviewSizes()) {
-            int dWidth = Math.abs(size.width - mPreferWidth);
-            int dHeight = Math.abs(size.height - mPreferHeight);
-            int score = dWidth + dHeight;
+            list.add(new int[]{size.width, size.height});
+        }
 
-            if (score < bestScore) {
-                bestScore = score;
-                bestSize = size;
-            }
+        mCapturePlan = new CapturePlan(mConfig, mPreferWidth, mPreferHeight);
+        int[] best = mCapturePlan.select(list);
+        Camera.Size bestSize = null;
+        for (Camera.Size size : params.getSupportedPreviewSizes()) {
+            if (best != null && size.width == best[0] && size.height == best[1]) bestSize = size;
         }
 
         if (bestSize != null) {
@@ -103,28 +106,17 @@ class CameraCapture implements Camera.PreviewCallback {
 
     /**
      * Modifies camera minimum and maximum frames per second parameters. Lists all supported frame
-     * rate ranges and chooses the one closest to PREFER_FRAME_RATE.
+     * rate ranges and lets a FrameRatePlan choose the highest one that can be sustained.
      */
     private void configureFrameRate(Camera.Parameters params) {
-        int[] bestRange = null;
-        int bestScore = Integer.MAX_VALUE;
-        int preferFp1000s = Math.round(PREFER_FRAME_RATE * 1000.f);
-
-        for (int[] range : params.getSupportedPreviewFpsRange()) {
-            int dLow = Math.abs(range[0] - preferFp1000s);
-            int dHigh = Math.abs(range[1] - preferFp1000s);
-            int dApart = Math.abs(range[1] - range[0]);
-            int score = dLow + dHigh + 4 * dApart; // strongly prefer fixed frame rate
-
-            if (score < bestScore) {
-                bestScore = score;
-                bestRange = range;
-            }
-        }
+        mFrameRatePlan = new FrameRatePlan(mConfig, mSize.width, mSize.height,
+                mCapturePlan.getPredictedNs());
+        int[] bestRange = mFrameRatePlan.select(params.getSupportedPreviewFpsRange(), 1000);
 
         if (bestRange != null) {
             params.setPreviewFpsRange(bestRange[0], bestRange[1]);
-            mFrameRate = (float) (bestRange[0] + bestRange[1]) / (2 * 1000.f);
+            // the upper bound is the rate the camera delivers whenever the exposure allows it
+            mFrameRate = bestRange[1] / 1000.f;
         }
     }
 
@@ -144,9 +136,7 @@ class CameraCapture implements Camera.PreviewCallback {
         }
     }
 
-    /**
-     * Starts writing frames into the provided target texture and sending raw data via the callback.
-     */
+    @Override
     public void start(@NonNull SurfaceTexture outputTexture) {
         if (mCamera == null) return;
 
@@ -154,8 +144,14 @@ class CameraCapture implements Camera.PreviewCallback {
             mCamera.setPreviewTexture(outputTexture);
 
             if (mCb != null) {
-                for (int i = 0; i < 4; i++) {
-                    byte[] buffer = new byte[(mSize.width * mSize.height * BITS_PER_PIXEL) / 8];
+                int frameSize = (mSize.width * mSize.height * BITS_PER_PIXEL) / 8;
+                mFramePool = new FramePool(NUM_BUFFERS, frameSize, mConfig.framePoolMemoryBytes);
+                if (mConfig.motionGating) {
+                    mMotionGate = new MotionGate(mSize.width, mSize.height, mFrameRate,
+                            mConfig.motionThreshold, mConfig.idleFrameRate);
+                }
+                for (int i = 0; i < NUM_BUFFERS; i++) {
+                    byte[] buffer = new byte[frameSize];
                     mCamera.addCallbackBuffer(buffer);
                 }
                 mCamera.setPreviewCallbackWithBuffer(this);
@@ -170,17 +166,27 @@ class CameraCapture implements Camera.PreviewCallback {
     }
 
     /**
-     * Receives frame from the camera as raw, YUV 4:2:0 single plane data.
+     * Receives frame from the camera as raw, YUV 4:2:0 single plane data. The data is copied into
+     * a pooled direct buffer and the array is given back to the camera straight away, so a few
+     * callback buffers are enough; it is the pool that grows when consumers hold frames for long.
+     * If the pool cannot provide a frame, or if the motion gate decides to skip it, the data is
+     * dropped. Preview callbacks come without a capture time, so frames are stamped on arrival;
+     * the images drawn into the texture do carry one.
      */
     @Override
     public void onPreviewFrame(byte[] dataYUV420SP, Camera camera) {
-        mCb.onCameraFrame(dataYUV420SP);
+        if (mMotionGate != null && !mMotionGate.accept(dataYUV420SP)) {
+            mCamera.addCallbackBuffer(dataYUV420SP);
+            return;
+        }
+
+        Frame frame = mFramePool.acquire();
+        if (frame != null) frame.fill(dataYUV420SP);
         mCamera.addCallbackBuffer(dataYUV420SP);
+        if (frame != null) mCb.onCameraFrame(frame);
     }
 
-    /**
-     * Stops writing frames.
-     */
+    @Override
     public void stop() {
         if (mCamera == null) return;
         mCamera.setPreviewCallback(null);
@@ -188,9 +194,7 @@ class CameraCapture implements Camera.PreviewCallback {
         mStarted = false;
     }
 
-    /**
-     * Stops writing frames into the output texture and releases all resources.
-     */
+    @Override
     public void release() {
         if (mReleased) return;
         mReleased = true;
@@ -227,37 +231,47 @@ class CameraCapture implements Camera.PreviewCallback {
         return 0;
     }
 
-    /**
-     * @return a MediaFormat object describing a video format compatible with the camera output
-     */
-    MediaFormat getMediaFormat() {
-        MediaFormat f = MediaFormat.createVideoFormat(MIME_TYPE, mSize.width, mSize.height);
-        f.setInteger(MediaFormat.KEY_BIT_RATE, PREFER_BIT_RATE);
-        f.setInteger(MediaFormat.KEY_COLOR_FORMAT, CodecCapabilities.COLOR_FormatSurface);
-        f.setFloat(MediaFormat.KEY_FRAME_RATE, mFrameRate);
-        f.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, PREFER_I_FRAME_INTERVAL);
-        return f;
-    }
-
-    int getWidth() {
+    @Override
+    public int getWidth() {
         return mSize.width;
     }
 
-    int getHeight() {
+    @Override
+    public int getHeight() {
         return mSize.height;
     }
 
-    int getBitRate() {
-        return PREFER_BIT_RATE;
+    @Override
+    public float getFrameRate() {
+        return mFrameRate;
     }
 
-    float getFrameRate() {
-        return mFrameRate;
+    @Override
+    public long getTimeOffset() {
+        return 0;
+    }
+
+    @Nullable
+    @Override
+    public MotionGate getMotionGate() {
+        return mMotionGate;
+    }
+
+    @Nullable
+    @Override
+    public FramePool getFramePool() {
+        return mFramePool;
     }
 
-    public interface Callback {
-        void onCameraFrame(byte[] dataYUV420SP);
+    @Nullable
+    @Override
+    public FrameRatePlan getFrameRatePlan() {
+        return mFrameRatePlan;
+    }
 
-        void onCameraError();
+    @Nullable
+    @Override
+    public CapturePlan getCapturePlan() {
+        return mCapturePlan;
     }
 }
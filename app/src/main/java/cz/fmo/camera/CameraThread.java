@@ -1,5 +1,6 @@
 package cz.fmo.camera;
 
+import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaFormat;
 import android.opengl.GLES20;
 import android.support.annotation.Nullable;
@@ -17,15 +18,21 @@ import cz.fmo.util.GenericThread;
  * two distinct mechanisms. Firstly, one can add surfaces via the addTarget() method; these will
  * be drawn on using OpenGL. Secondly, one can implement the onCameraFrame() callback, which will
  * receive the captured frames as a byte array.
+ * <p>
+ * Frames come from a FrameSource, which is either given to the constructor or selected according
+ * to the configuration.
  */
 public class CameraThread extends GenericThread<CameraThreadHandler> {
+    private static final String MIME_TYPE = "video/avc";
+    private static final int PREFER_BIT_RATE = 6 * 1024 * 1024; // bits per second
+    private static final int PREFER_I_FRAME_INTERVAL = 1; // seconds
     private final Callback mCb;
     private final java.util.ArrayList<Target> mTargets = new java.util.ArrayList<>();
     private EGL mEGL;
     private CameraFrameRenderer mCameraFrameRenderer;
     private TriangleStripRenderer mTriangleStripRenderer;
     private FontRenderer mFontRenderer;
-    private CameraCapture mCapture;
+    private FrameSource mCapture;
 
     /**
      * The constructor selects and opens a suitable camera. All methods can be called afterwards.
@@ -33,9 +40,17 @@ public class CameraThread extends GenericThread<CameraThreadHandler> {
      * fail.
      */
     public CameraThread(@Nullable Callback cb, Config config) {
+        this(cb, new CameraCapture(cb, config));
+    }
+
+    /**
+     * @param source frame source that has been constructed with the same callback; the thread
+     *               takes ownership of it
+     */
+    public CameraThread(@Nullable Callback cb, FrameSource source) {
         super("CameraThread");
         mCb = cb;
-        mCapture = new CameraCapture(mCb, config);
+        mCapture = source;
     }
 
     /**
@@ -126,8 +141,16 @@ public class CameraThread extends GenericThread<CameraThreadHandler> {
         return new CameraThreadHandler(this);
     }
 
+    /**
+     * @return a MediaFormat object describing a video format compatible with the camera output
+     */
     public MediaFormat getMediaFormat() {
-        return mCapture.getMediaFormat();
+        MediaFormat f = MediaFormat.createVideoFormat(MIME_TYPE, getWidth(), getHeight());
+        f.setInteger(MediaFormat.KEY_BIT_RATE, PREFER_BIT_RATE);
+        f.setInteger(MediaFormat.KEY_COLOR_FORMAT, CodecCapabilities.COLOR_FormatSurface);
+        f.setFloat(MediaFormat.KEY_FRAME_RATE, getFrameRate());
+        f.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, PREFER_I_FRAME_INTERVAL);
+        return f;
     }
 
     public int getWidth() {
@@ -139,13 +162,54 @@ public class CameraThread extends GenericThread<CameraThreadHandler> {
     }
 
     public int getBitRate() {
-        return mCapture.getBitRate();
+        return PREFER_BIT_RATE;
     }
 
     public float getFrameRate() {
         return mCapture.getFrameRate();
     }
 
+    /**
+     * @return capture time of the camera frame drawn last, in the time base of System.nanoTime(),
+     * in nanoseconds; the same time is carried by the raw frame, if the source can tell
+     */
+    long getFrameTimestamp() {
+        return mCameraFrameRenderer.getTimestamp() + mCapture.getTimeOffset();
+    }
+
+    /**
+     * @return the motion gate that throttles detection in idle scenes, or null if disabled
+     */
+    @Nullable
+    public MotionGate getMotionGate() {
+        return (mCapture == null) ? null : mCapture.getMotionGate();
+    }
+
+    /**
+     * @return the pool of raw frames, or null if raw frames are not requested
+     */
+    @Nullable
+    public FramePool getFramePool() {
+        return (mCapture == null) ? null : mCapture.getFramePool();
+    }
+
+    /**
+     * @return the decision on the frame rate, or null if the source does not make one
+     */
+    @Nullable
+    public FrameRatePlan getFrameRatePlan() {
+        return (mCapture == null) ? null : mCapture.getFrameRatePlan();
+    }
+
+    /**
+     * @return the decision on the capture size and the processing resolution, or null if the
+     * source does not make one
+     */
+    @Nullable
+    public CapturePlan getCapturePlan() {
+        return (mCapture == null) ? null : mCapture.getCapturePlan();
+    }
+
     CameraFrameRenderer getCameraFrameRenderer() {
         return mCameraFrameRenderer;
     }
@@ -156,7 +220,7 @@ public class CameraThread extends GenericThread<CameraThreadHandler> {
 
     FontRenderer getFontRenderer() { return mFontRenderer; }
 
-    public interface Callback extends CameraCapture.Callback {
+    public interface Callback extends FrameSource.Callback {
         void onCameraRender();
     }
 
@@ -205,9 +269,19 @@ public class CameraThread extends GenericThread<CameraThreadHandler> {
             mEglSurface.makeCurrent();
             GLES20.glViewport(0, 0, mWidth, mHeight);
             renderImpl(thread);
+            if (isTimestamped()) mEglSurface.presentationTime(thread.getFrameTimestamp());
             mEglSurface.swapBuffers();
         }
 
+        /**
+         * @return whether the images passed to the surface should carry the capture time of the
+         * camera frame, instead of the time of swapping buffers; displays would take it for the
+         * time to show the image at, so this is for encoders only
+         */
+        boolean isTimestamped() {
+            return false;
+        }
+
         /**
          * Draw onto the target surface using OpenGL (low level).
          */
@@ -0,0 +1,117 @@
+package cz.fmo.camera;
+
+import java.util.Locale;
+
+import cz.fmo.detection.CostModel;
+import cz.fmo.util.Config;
+
+/**
+ * Decides on the capture size using the CostModel. The processing resolution is always the
+ * configured one, so the detector never works with less detail than the user asked for; the plan
+ * only chooses the capture size to go with it. The candidates are the supported sizes that the
+ * preview can accept: the preferred aspect ratio, no larger than the preferred size, and at least
+ * MIN_PREVIEW_SCALE of its height, as well as tall enough for the processing resolution. Of
+ * these, the size with the lowest cost predicted by the CostModel wins.
+ * <p>
+ * If recording is enabled, the capture size is also the size of the video, so the size closest
+ * to the preferred one is used. The same size is used if there are no candidates.
+ */
+public final class CapturePlan {
+    private static final float MIN_PREVIEW_SCALE = 0.66f;
+    private static final float ASPECT_TOLERANCE = 0.02f;
+    private final CostModel mModel;
+    private final int mPreferWidth;
+    private final int mPreferHeight;
+    private final int mProcRes;
+    private final boolean mFixedSize;
+    private int[] mSize = null;
+    private boolean mPlanned = false;
+    private int mNumCandidates = 0;
+
+    CapturePlan(Config config, int preferWidth, int preferHeight) {
+        mModel = config.costModel;
+        mPreferWidth = preferWidth;
+        mPreferHeight = preferHeight;
+        mProcRes = config.procRes;
+        mFixedSize = config.recordMode != Config.RecordMode.OFF;
+    }
+
+    /**
+     * Chooses the capture size and remembers it.
+     *
+     * @param sizes supported capture sizes, as pairs of width and height
+     * @return the chosen size, or null if sizes is empty
+     */
+    int[] select(Iterable<int[]> sizes) {
+        int[] closest = null;
+        for (int[] size : sizes) {
+            if (closest == null || distance(size) < distance(closest)) closest = size;
+        }
+        if (closest == null) return null;
+
+        mSize = closest;
+        if (mFixedSize) return mSize;
+
+        float bestCost = Float.MAX_VALUE;
+        for (int[] size : sizes) {
+            if (!isCandidate(size)) continue;
+            mNumCandidates++;
+            float cost = predictNs(size);
+
+            // of two equally costly sizes, the larger one makes for a better preview
+            if (cost < bestCost || (cost == bestCost && size[1] > mSize[1])) {
+                bestCost = cost;
+                mSize = size;
+                mPlanned = true;
+            }
+        }
+        return mSize;
+    }
+
+    private int distance(int[] size) {
+        return Math.abs(size[0] - mPreferWidth) + Math.abs(size[1] - mPreferHeight);
+    }
+
+    private boolean isCandidate(int[] size) {
+        if (size[0] > mPreferWidth || size[1] > mPreferHeight) return false;
+        if (size[1] < MIN_PREVIEW_SCALE * mPreferHeight || size[1] < mProcRes) return false;
+        float aspect = (float) size[0] / size[1];
+        float preferAspect = (float) mPreferWidth / mPreferHeight;
+        return Math.abs(aspect / preferAspect - 1.f) <= ASPECT_TOLERANCE;
+    }
+
+    /**
+     * Predicts the cost of a size, which is downscaled to the processing resolution by the
+     * detector, unless it is smaller already.
+     */
+    private float predictNs(int[] size) {
+        int procHeight = Math.min(size[1], mProcRes);
+        int procWidth = (int) ((long) size[0] * procHeight / size[1]);
+        return mModel.predictNs(size[0], size[1], procWidth, procHeight);
+    }
+
+    /**
+     * @return the processing resolution to use with the chosen size, which is always the
+     * configured one
+     */
+    public int getProcRes() {
+        return mProcRes;
+    }
+
+    /**
+     * @return predicted time per frame for the chosen size, in nanoseconds
+     */
+    public float getPredictedNs() {
+        return (mSize == null) ? 0 : predictNs(mSize);
+    }
+
+    @Override
+    public String toString() {
+        if (mSize == null) return "no sizes";
+        String how = mFixedSize ? "fixed for recording" : mPlanned ?
+                String.format(Locale.US, "planned from %d candidates", mNumCandidates) :
+                "closest to preferred, no candidates";
+        return String.format(Locale.US, "%dx%d, procRes %d, predicted %.2f ms, %s, model %s",
+                mSize[0], mSize[1], mProcRes, getPredictedNs() / 1e6f, how, mModel);
+    }
+}
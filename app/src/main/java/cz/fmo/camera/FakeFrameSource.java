@@ -0,0 +1,136 @@
+package cz.fmo.camera;
+
+import android.graphics.SurfaceTexture;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A frame source that produces the frames given to its push() method, so that the frame path can
+ * be driven without a camera, e.g. from unit tests or by replaying recorded data. Nothing is drawn
+ * into the output texture. The source uses no Android APIs apart from the signature of start().
+ */
+public class FakeFrameSource implements FrameSource {
+    private final Callback mCb;
+    private final int mWidth;
+    private final int mHeight;
+    private final float mFrameRate;
+    private final FramePool mFramePool;
+    private volatile boolean mStopped = false;
+    private volatile long mNumPushed = 0;
+    private volatile long mNumDropped = 0;
+
+    /**
+     * @param cb         callback to hand the frames over to
+     * @param width      frame width
+     * @param height     frame height
+     * @param frameRate  frame rate to report
+     * @param numBuffers number of frames that can be held by the receiver at the same time; the
+     *                   pool of this source does not grow
+     */
+    public FakeFrameSource(@Nullable Callback cb, int width, int height, float frameRate,
+                           int numBuffers) {
+        mCb = cb;
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        int frameSize = width * height * 3 / 2;
+        mFramePool = new FramePool(numBuffers, frameSize, (long) numBuffers * frameSize);
+    }
+
+    /**
+     * Hands a frame over to the callback, unless the source has been stopped or all frames are
+     * still held by the receiver, in which case the frame is dropped. Frames are accepted before
+     * start() is called, so that tests need no SurfaceTexture.
+     *
+     * @param dataYUV420SP NV21 frame data
+     * @param timestamp    frame time in nanoseconds
+     * @return whether the frame has been handed over
+     */
+    public boolean push(byte[] dataYUV420SP, long timestamp) {
+        mNumPushed++;
+        Frame frame = mFramePool.acquire();
+
+        if (mCb == null || frame == null || mStopped) {
+            if (frame != null) frame.recycle();
+            mNumDropped++;
+            return false;
+        }
+
+        frame.fill(dataYUV420SP, timestamp);
+        mCb.onCameraFrame(frame);
+        return true;
+    }
+
+    @Override
+    public void start(@NonNull SurfaceTexture outputTexture) {
+        mStopped = false;
+    }
+
+    @Override
+    public void stop() {
+        mStopped = true;
+    }
+
+    @Override
+    public void release() {
+        stop();
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public float getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public long getTimeOffset() {
+        return 0;
+    }
+
+    @Nullable
+    @Override
+    public MotionGate getMotionGate() {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    @Nullable
+    @Override
+    public FrameRatePlan getFrameRatePlan() {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public CapturePlan getCapturePlan() {
+        return null;
+    }
+
+    /**
+     * @return the number of frames pushed so far
+     */
+    public long getNumPushed() {
+        return mNumPushed;
+    }
+
+    /**
+     * @return the number of pushed frames that were not handed over
+     */
+    public long getNumDropped() {
+        return mNumDropped;
+    }
+}
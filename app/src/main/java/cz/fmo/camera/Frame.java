@@ -0,0 +1,89 @@
+package cz.fmo.camera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single camera frame in NV21 format, stored in a direct buffer so that native code can read it
+ * in place. Frames are owned by a FramePool; whoever receives a frame must call recycle() once it
+ * is no longer needed. A frame that is handed to more than one consumer must be retained once for
+ * every additional consumer; it returns to the pool when the last of them recycles it.
+ */
+public final class Frame {
+    private final FramePool mPool;
+    private final ByteBuffer mData;
+    private final AtomicInteger mRefs = new AtomicInteger(0);
+    private long mTimestamp = 0;
+    private long mAcquiredAt = 0;
+
+    Frame(FramePool pool, int size) {
+        mPool = pool;
+        mData = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * @return direct buffer containing YUV 4:2:0 single plane data
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    /**
+     * @return capture time of the frame in nanoseconds, in the time base of System.nanoTime()
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Copies raw data received from the camera into this frame, using the current time as its
+     * timestamp.
+     */
+    void fill(byte[] dataYUV420SP) {
+        fill(dataYUV420SP, System.nanoTime());
+    }
+
+    /**
+     * Copies raw data into this frame.
+     */
+    void fill(byte[] dataYUV420SP, long timestamp) {
+        mTimestamp = timestamp;
+        mData.clear();
+        mData.put(dataYUV420SP, 0, mData.capacity());
+        mData.clear();
+    }
+
+    /**
+     * Sets the timestamp of a frame whose data has been written into getData() directly.
+     */
+    void setTimestamp(long timestamp) {
+        mTimestamp = timestamp;
+    }
+
+    void setAcquiredAt(long time) {
+        mAcquiredAt = time;
+        mRefs.set(1);
+    }
+
+    /**
+     * @return the time at which the frame was taken from its pool, as given by System.nanoTime()
+     */
+    long getAcquiredAt() {
+        return mAcquiredAt;
+    }
+
+    /**
+     * Adds a consumer of the frame, who must call recycle() as well.
+     */
+    public void retain() {
+        mRefs.incrementAndGet();
+    }
+
+    /**
+     * Returns the frame to its pool, unless there are other consumers left. The frame must not be
+     * accessed afterwards.
+     */
+    public void recycle() {
+        if (mRefs.decrementAndGet() == 0) mPool.release(this);
+    }
+}
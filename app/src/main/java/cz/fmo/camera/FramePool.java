@@ -0,0 +1,139 @@
+package cz.fmo.camera;
+
+import java.util.ArrayDeque;
+
+/**
+ * A set of preallocated frames that adapts its size to the consumers. Allocating direct buffers
+ * is expensive, so frames are reused for as long as the pool exists.
+ * <p>
+ * The pool measures how long consumers hold frames and how often frames are acquired. By Little's
+ * law, their ratio is the number of frames in use on average; the pool aims to keep that many
+ * frames plus a spare. When no frame is free and the pool is below its target, a new frame is
+ * allocated on the spot, as long as the memory cap allows it; otherwise the frame is lost, which
+ * is counted. Surplus frames are discarded as they are released, down to the initial count.
+ */
+public class FramePool {
+    private static final int SPARE_FRAMES = 1;
+    private static final float SMOOTHING = 0.05f; // weight of the newest sample in the averages
+    private final ArrayDeque<Frame> mFree = new ArrayDeque<>();
+    private final int mFrameSize;
+    private final int mMinCount;
+    private final int mMaxCount;
+    private int mCount = 0;
+    private int mInUse = 0;
+    private int mPeakInUse = 0;
+    private long mNumAcquired = 0;
+    private long mNumStarved = 0;
+    private long mLastAcquired = 0;
+    private float mMeanIntervalNs = 0;
+    private float mMeanHoldNs = 0;
+
+    /**
+     * @param count     number of frames to allocate up front, and the minimum size of the pool
+     * @param frameSize size of a single frame in bytes
+     * @param maxBytes  maximum memory taken by all frames; the pool never shrinks below count
+     */
+    FramePool(int count, int frameSize, long maxBytes) {
+        mFrameSize = frameSize;
+        mMinCount = count;
+        mMaxCount = (int) Math.max(count, Math.min(Integer.MAX_VALUE, maxBytes / frameSize));
+
+        for (int i = 0; i < count; i++) {
+            mFree.add(new Frame(this, frameSize));
+        }
+        mCount = count;
+    }
+
+    /**
+     * @return an unused frame, or null if all frames are in use and the pool cannot grow
+     */
+    synchronized Frame acquire() {
+        long now = System.nanoTime();
+        if (mLastAcquired != 0) mMeanIntervalNs = average(mMeanIntervalNs, now - mLastAcquired);
+        mLastAcquired = now;
+
+        Frame frame = mFree.pollFirst();
+
+        if (frame == null && mCount < Math.min(mMaxCount, getTargetCount())) {
+            frame = new Frame(this, mFrameSize);
+            mCount++;
+        }
+
+        if (frame == null) {
+            mNumStarved++;
+            return null;
+        }
+
+        frame.setAcquiredAt(now);
+        mNumAcquired++;
+        mInUse++;
+        mPeakInUse = Math.max(mPeakInUse, mInUse);
+        return frame;
+    }
+
+    synchronized void release(Frame frame) {
+        mMeanHoldNs = average(mMeanHoldNs, System.nanoTime() - frame.getAcquiredAt());
+        mInUse--;
+
+        if (mCount > Math.max(mMinCount, getTargetCount())) {
+            mCount--; // let the garbage collector take it
+            return;
+        }
+
+        mFree.addFirst(frame);
+    }
+
+    private float average(float mean, long sample) {
+        return (mean == 0) ? sample : mean + SMOOTHING * (sample - mean);
+    }
+
+    /**
+     * @return the number of frames the pool aims to have, regardless of the limits
+     */
+    private int getTargetCount() {
+        if (mMeanIntervalNs <= 0) return mMinCount;
+        return (int) Math.ceil(mMeanHoldNs / mMeanIntervalNs) + SPARE_FRAMES;
+    }
+
+    /**
+     * @return the number of frames currently allocated
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the maximum number of frames that the memory cap allows
+     */
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * @return the highest number of frames that were in use at the same time
+     */
+    public synchronized int getPeakInUse() {
+        return mPeakInUse;
+    }
+
+    /**
+     * @return the number of frames lost so far because no frame was free
+     */
+    public synchronized long getNumStarved() {
+        return mNumStarved;
+    }
+
+    /**
+     * @return the number of frames handed out so far
+     */
+    public synchronized long getNumAcquired() {
+        return mNumAcquired;
+    }
+
+    /**
+     * @return mean time between acquiring a frame and releasing it, in nanoseconds
+     */
+    public synchronized long getMeanHoldNs() {
+        return (long) mMeanHoldNs;
+    }
+}
@@ -0,0 +1,134 @@
+package cz.fmo.camera;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.util.Range;
+
+import java.util.Locale;
+
+import cz.fmo.util.Config;
+
+/**
+ * Decides on the capture frame rate. The rate selected in the configuration is a target; rates
+ * above the standard rate are only used if they can be sustained:
+ * <ul>
+ * <li>by the detector, whose time per frame, as predicted by the calibrated CostModel for the
+ * planned capture size and processing resolution, must fit into the frame interval, unless frame
+ * skipping is enabled or detection is disabled;</li>
+ * <li>by the video encoder at the capture size, if recording is enabled.</li>
+ * </ul>
+ * The camera then gets the highest supported frame rate range that does not exceed the resulting
+ * limit, preferring fixed ranges.
+ */
+public final class FrameRatePlan {
+    private static final String MIME_TYPE = "video/avc";
+    private final float mTarget;
+    private final float mDetectorLimit;
+    private final float mEncoderLimit;
+    private final float mLimit;
+    private int[] mRange = null;
+    private int mScale = 1;
+
+    /**
+     * @param width       capture width
+     * @param height      capture height
+     * @param detectionNs predicted time to get a frame through detection, in nanoseconds
+     */
+    FrameRatePlan(Config config, int width, int height, float detectionNs) {
+        mTarget = config.targetFrameRate;
+
+        boolean detectorBound = !config.disableDetection && !config.frameSkipping &&
+                detectionNs > 0;
+        mDetectorLimit = detectorBound ? 1e9f / detectionNs : Float.MAX_VALUE;
+
+        boolean recording = config.recordMode != Config.RecordMode.OFF;
+        mEncoderLimit = recording ? maxEncoderRate(width, height) : Float.MAX_VALUE;
+
+        float limit = Math.min(mTarget, Math.min(mDetectorLimit, mEncoderLimit));
+        mLimit = Math.max(CameraCapture.PREFER_FRAME_RATE, limit);
+    }
+
+    /**
+     * @return the highest frame rate that some AVC encoder reports for the given size, or the
+     * standard rate if there is no such encoder
+     */
+    private static float maxEncoderRate(int width, int height) {
+        double best = CameraCapture.PREFER_FRAME_RATE;
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(MIME_TYPE)) continue;
+                MediaCodecInfo.VideoCapabilities caps =
+                        info.getCapabilitiesForType(type).getVideoCapabilities();
+
+                try {
+                    Range<Double> rates = caps.getSupportedFrameRatesFor(width, height);
+                    best = Math.max(best, rates.getUpper());
+                } catch (IllegalArgumentException e) {
+                    // size not supported by this encoder
+                }
+            }
+        }
+
+        return (float) best;
+    }
+
+    /**
+     * Chooses a frame rate range and remembers it.
+     *
+     * @param ranges supported ranges, as pairs of minimum and maximum rate
+     * @param scale  the factor by which the values in ranges are multiplied, e.g. 1000 for the
+     *               frames-per-1000-seconds units of android.hardware.Camera
+     * @return the chosen range, or null if ranges is empty
+     */
+    int[] select(Iterable<int[]> ranges, int scale) {
+        float limit = mLimit * scale + 0.5f;
+        int[] best = null;
+
+        for (int[] range : ranges) {
+            if (best == null || isBetter(range, best, limit)) best = range;
+        }
+
+        mRange = best;
+        mScale = scale;
+        return best;
+    }
+
+    /**
+     * Ranges within the limit beat those above it. Within the limit, the higher maximum wins;
+     * above it, the lower maximum wins. Ties go to the narrower range.
+     */
+    private static boolean isBetter(int[] a, int[] b, float limit) {
+        boolean aFits = a[1] <= limit;
+        boolean bFits = b[1] <= limit;
+        if (aFits != bFits) return aFits;
+        if (a[1] != b[1]) return aFits ? a[1] > b[1] : a[1] < b[1];
+        return a[1] - a[0] < b[1] - b[0];
+    }
+
+    /**
+     * @return the target rate from the configuration
+     */
+    public float getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * @return the highest rate that can be used
+     */
+    public float getLimit() {
+        return mLimit;
+    }
+
+    @Override
+    public String toString() {
+        String range = (mRange == null) ? "none" : String.format(Locale.US, "%.1f-%.1f",
+                (float) mRange[0] / mScale, (float) mRange[1] / mScale);
+        return String.format(Locale.US, "target %.0f, detector %.1f, encoder %.1f, limit %.1f, " +
+                        "range %s", mTarget, Math.min(mDetectorLimit, 999.f),
+                Math.min(mEncoderLimit, 999.f), mLimit, range);
+    }
+}
@@ -0,0 +1,80 @@
+package cz.fmo.camera;
+
+import android.graphics.SurfaceTexture;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A source of camera frames, which it provides in two forms: it draws them into a SurfaceTexture
+ * for OpenGL rendering, and it hands them over as raw NV21 data via the onCameraFrame() method of
+ * its callback. The size and the frame rate are known as soon as the source is constructed.
+ * <p>
+ * Frame timestamps use the time base of System.nanoTime(), whatever the source. Timestamps of the
+ * images drawn into the SurfaceTexture are converted into that time base by adding
+ * getTimeOffset().
+ */
+public interface FrameSource {
+    /**
+     * Starts writing frames into the provided target texture and sending raw data via the
+     * callback. Called on the thread that owns the texture.
+     */
+    void start(@NonNull SurfaceTexture outputTexture);
+
+    /**
+     * Stops writing frames.
+     */
+    void stop();
+
+    /**
+     * Stops writing frames and releases all resources.
+     */
+    void release();
+
+    int getWidth();
+
+    int getHeight();
+
+    float getFrameRate();
+
+    /**
+     * @return the value to add to SurfaceTexture.getTimestamp() to get a frame time in the time
+     * base of System.nanoTime(), in nanoseconds
+     */
+    long getTimeOffset();
+
+    /**
+     * @return the motion gate, or null if motion gating is disabled or capture has not started
+     */
+    @Nullable
+    MotionGate getMotionGate();
+
+    /**
+     * @return the pool of raw frames, or null if raw frames are not requested or capture has not
+     * started
+     */
+    @Nullable
+    FramePool getFramePool();
+
+    /**
+     * @return the decision on the frame rate, or null if the source does not make one
+     */
+    @Nullable
+    FrameRatePlan getFrameRatePlan();
+
+    /**
+     * @return the decision on the capture size and the processing resolution, or null if the
+     * source does not make one
+     */
+    @Nullable
+    CapturePlan getCapturePlan();
+
+    interface Callback {
+        /**
+         * Receives a raw frame. The receiver takes ownership of the frame and must call
+         * Frame.recycle() once it is no longer needed.
+         */
+        void onCameraFrame(Frame frame);
+
+        void onCameraError();
+    }
+}
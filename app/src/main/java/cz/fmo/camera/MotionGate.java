@@ -0,0 +1,163 @@
+package cz.fmo.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cheap change detector that decides which camera frames are worth running detection on. A
+ * sparse grid of luma values is sampled from every frame and compared with the previous sample.
+ * While nothing moves, the gate is idle and lets through only a few frames per second; the first
+ * frame with motion switches it back to the active state, in which every frame is let through.
+ */
+public class MotionGate {
+    private static final int GRID_X = 64;
+    private static final int GRID_Y = 36;
+    private static final int MIN_CHANGED_SAMPLES = 2;
+    private static final float ACTIVE_HOLD_SEC = 1.f; // stay active this long after last motion
+    private final int mWidth;
+    private final int mHeight;
+    private final int mThreshold;
+    private final int mIdleInterval;
+    private final int mHoldFrames;
+    private final byte[] mSamples = new byte[GRID_X * GRID_Y];
+    private boolean mHaveSamples = false;
+    private boolean mActive = true;
+    private int mSinceMotion = 0;
+    private int mSinceAccepted = 0;
+    private long mStateSince = System.nanoTime();
+    private volatile long mActiveNs = 0;
+    private volatile long mIdleNs = 0;
+    private volatile long mNumSkipped = 0;
+
+    /**
+     * @param width         frame width
+     * @param height        frame height
+     * @param frameRate     camera frame rate
+     * @param threshold     minimum change of a luma sample to be considered motion
+     * @param idleFrameRate number of frames per second to let through while idle
+     */
+    MotionGate(int width, int height, float frameRate, int threshold, float idleFrameRate) {
+        mWidth = width;
+        mHeight = height;
+        mThreshold = threshold;
+        mIdleInterval = Math.max(1, Math.round(frameRate / idleFrameRate));
+        mHoldFrames = Math.max(1, Math.round(frameRate * ACTIVE_HOLD_SEC));
+    }
+
+    /**
+     * Samples the frame and updates the state.
+     *
+     * @param dataYUV420SP frame data, only the luma plane is read
+     * @return whether the frame should go through detection
+     */
+    boolean accept(byte[] dataYUV420SP) {
+        return update(sample(dataYUV420SP));
+    }
+
+    /**
+     * Same as accept(byte[]), for frames whose luma plane is in a buffer with padded rows, as
+     * delivered by ImageReader.
+     *
+     * @param luma      luma plane, read using absolute positions
+     * @param rowStride distance between the starts of two consecutive rows, in bytes
+     */
+    boolean accept(ByteBuffer luma, int rowStride) {
+        return update(sample(luma, rowStride));
+    }
+
+    private boolean update(boolean motion) {
+        if (motion) {
+            mSinceMotion = 0;
+            if (!mActive) setActive(true);
+        } else if (mActive && ++mSinceMotion >= mHoldFrames) {
+            setActive(false);
+        }
+
+        if (mActive || ++mSinceAccepted >= mIdleInterval) {
+            mSinceAccepted = 0;
+            return true;
+        }
+
+        mNumSkipped++;
+        return false;
+    }
+
+    /**
+     * @return whether enough luma samples have changed since the previous frame
+     */
+    private boolean sample(byte[] data) {
+        int changed = 0;
+        int i = 0;
+
+        for (int gy = 0; gy < GRID_Y; gy++) {
+            int row = ((2 * gy + 1) * mHeight / (2 * GRID_Y)) * mWidth;
+            for (int gx = 0; gx < GRID_X; gx++, i++) {
+                if (store(i, data[row + (2 * gx + 1) * mWidth / (2 * GRID_X)])) changed++;
+            }
+        }
+
+        return finishSample(changed);
+    }
+
+    private boolean sample(ByteBuffer luma, int rowStride) {
+        int changed = 0;
+        int i = 0;
+
+        for (int gy = 0; gy < GRID_Y; gy++) {
+            int row = ((2 * gy + 1) * mHeight / (2 * GRID_Y)) * rowStride;
+            for (int gx = 0; gx < GRID_X; gx++, i++) {
+                if (store(i, luma.get(row + (2 * gx + 1) * mWidth / (2 * GRID_X)))) changed++;
+            }
+        }
+
+        return finishSample(changed);
+    }
+
+    /**
+     * Replaces the i-th sample.
+     *
+     * @return whether the sample has changed by more than the threshold
+     */
+    private boolean store(int i, byte value) {
+        int diff = Math.abs((value & 0xFF) - (mSamples[i] & 0xFF));
+        mSamples[i] = value;
+        return diff > mThreshold;
+    }
+
+    private boolean finishSample(int changed) {
+        boolean motion = mHaveSamples && changed >= MIN_CHANGED_SAMPLES;
+        mHaveSamples = true;
+        return motion;
+    }
+
+    private void setActive(boolean active) {
+        long now = System.nanoTime();
+        if (mActive) {
+            mActiveNs += now - mStateSince;
+        } else {
+            mIdleNs += now - mStateSince;
+        }
+        mStateSince = now;
+        mActive = active;
+    }
+
+    /**
+     * @return total time spent in the active state, in nanoseconds
+     */
+    public long getActiveNs() {
+        return mActiveNs + (mActive ? System.nanoTime() - mStateSince : 0);
+    }
+
+    /**
+     * @return total time spent in the idle state, in nanoseconds
+     */
+    public long getIdleNs() {
+        return mIdleNs + (mActive ? 0 : System.nanoTime() - mStateSince);
+    }
+
+    /**
+     * @return the number of frames that were not let through
+     */
+    public long getNumSkipped() {
+        return mNumSkipped;
+    }
+}
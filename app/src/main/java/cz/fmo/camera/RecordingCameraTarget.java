@@ -4,7 +4,7 @@ import android.view.Surface;
 
 /**
  * A simple camera target that can be disabled at any time. Draws only the frame provided by the
- * camera.
+ * camera, stamped with its capture time.
  */
 public class RecordingCameraTarget extends CameraThread.Target {
     private boolean mEnabled = true;
@@ -26,6 +26,11 @@ public class RecordingCameraTarget extends CameraThread.Target {
         super.render(thread);
     }
 
+    @Override
+    boolean isTimestamped() {
+        return true;
+    }
+
     @Override
     void renderImpl(CameraThread thread) {
         thread.getCameraFrameRenderer().drawCameraFrame();
@@ -13,35 +13,39 @@ import cz.fmo.util.Config;
  * captured at different times.
  */
 class Track {
+    private static final float MAX_EXTRAPOLATION = 1.f; // in multiples of the detection interval
     private final Config mConfig;
-    private Lib.Detection mLatest;
+    private final TrackHistory mHistory;
     private float mLatestDx = 0;
     private float mLatestDy = 0;
     private Color.HSV mColorHSV = new Color.HSV();
     private Color.RGBA mColorRGBA = new Color.RGBA();
     private long mLastDetectionTime;
+    private long mLastFrameTime = 0;
+    private long mLatestDt = 0;
     private float mMaxVelocity;
     private int mVelocityNumFrames = 0;
 
     Track(Config config) {
         mConfig = config;
+        mHistory = new TrackHistory(config.trackLength);
     }
 
-    Lib.Detection getLatest() {
-        return mLatest;
-    }
-
-    void setLatest(Lib.Detection latest) {
-        if (mLatest != null) {
+    /**
+     * Appends the i-th detection of a batch to the track.
+     */
+    void setLatest(Lib.DetectionBatch batch, int i) {
+        if (!mHistory.isEmpty()) {
             // calculate speed stats for each segment
-            mLatestDx = latest.centerX - mLatest.centerX;
-            mLatestDy = latest.centerY - mLatest.centerY;
+            mLatestDx = batch.centerX[i] - mHistory.get(0, TrackHistory.CENTER_X);
+            mLatestDy = batch.centerY[i] - mHistory.get(0, TrackHistory.CENTER_Y);
 
-            float velocity = latest.velocity;
+            float velocity = batch.velocity[i];
 
             // for real-world estimation, apply a formula
             if (mConfig.velocityEstimationMode != Config.VelocityEstimationMode.PX_FR) {
-                velocity *= (mConfig.objectRadius / latest.radius) * mConfig.frameRate;
+                velocity *= (mConfig.objectRadius / batch.radius[i]) /
+                        getFrameIntervalSec(batch.timestamp);
             }
 
             // convert m/s to other units
@@ -63,8 +67,52 @@ class Track {
             mVelocityNumFrames++;
         }
 
-        mLastDetectionTime = System.nanoTime();
-        mLatest = latest;
+        long now = System.nanoTime();
+        mLatestDt = mHistory.isEmpty() ? 0 : now - mLastDetectionTime;
+        mLastDetectionTime = now;
+        mLastFrameTime = batch.timestamp;
+        mHistory.add(batch, i);
+    }
+
+    /**
+     * Measures the interval between camera frames using the capture times of the frames of the
+     * previous and the current detection. The configured frame rate only serves to tell how many
+     * frames apart the two detections are, which is more than one if frames have been skipped.
+     *
+     * @param frameTime capture time of the frame of the current detection, in nanoseconds
+     * @return interval between consecutive frames, in seconds
+     */
+    private float getFrameIntervalSec(long frameTime) {
+        float nominalSec = 1.f / mConfig.getFrameRate();
+        if (mLastFrameTime == 0 || frameTime <= mLastFrameTime) return nominalSec;
+
+        float dtSec = (frameTime - mLastFrameTime) / 1e9f;
+        int frames = Math.max(1, Math.round(dtSec / nominalSec));
+        return dtSec / frames;
+    }
+
+    /**
+     * Writes the region where the object is expected to appear in the next frame, as a center and
+     * half-extents along both axes. The region covers the predicted position, extended by the
+     * object size and part of the latest displacement to allow for acceleration.
+     *
+     * @param out    array to write four values into: centerX, centerY, halfWidth, halfHeight
+     * @param offset index of the first value in out
+     * @param maxAgeNs tracks not updated for longer than this are not predicted
+     * @return whether a prediction has been written
+     */
+    boolean predictRegion(float[] out, int offset, long maxAgeNs) {
+        if (mHistory.isEmpty()) return false;
+        if (System.nanoTime() - mLastDetectionTime > maxAgeNs) return false;
+
+        float radius = mHistory.get(0, TrackHistory.RADIUS);
+        float halfLength = 0.5f * mHistory.get(0, TrackHistory.LENGTH);
+        float extent = 2.f * radius + halfLength;
+        out[offset] = mHistory.get(0, TrackHistory.CENTER_X) + mLatestDx;
+        out[offset + 1] = mHistory.get(0, TrackHistory.CENTER_Y) + mLatestDy;
+        out[offset + 2] = extent + 0.5f * Math.abs(mLatestDx);
+        out[offset + 3] = extent + 0.5f * Math.abs(mLatestDy);
+        return true;
     }
 
     private void updateColor() {
@@ -78,7 +126,16 @@ class Track {
 
     void generateCurve(TriangleStripRenderer.Buffers b) {
         updateColor();
-        Lib.generateCurve(mLatest, mColorRGBA.rgba, b);
+
+        if (mConfig.frameSkipping && mLatestDt > 0) {
+            // detection does not run every frame: extend the curve to where the object is expected
+            // to be now, assuming it keeps moving the same way it did between the last detections
+            long sinceDetection = System.nanoTime() - mLastDetectionTime;
+            float t = Math.min(MAX_EXTRAPOLATION, (float) sinceDetection / mLatestDt);
+            mHistory.generateExtrapolatedCurve(t * mLatestDx, t * mLatestDy, mColorRGBA.rgba, b);
+        } else {
+            mHistory.generateCurve(mColorRGBA.rgba, b);
+        }
     }
 
     void generateLabel(FontRenderer fontRender, float hs, float ws, float left, float top, int i) {
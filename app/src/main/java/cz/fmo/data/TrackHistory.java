@@ -0,0 +1,91 @@
+package cz.fmo.data;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+import cz.fmo.graphics.TriangleStripRenderer;
+
+/**
+ * Fixed-capacity history of a single track, kept in a ring of primitive values. Once the ring is
+ * full, adding a new point overwrites the oldest one, so the memory taken by a track does not grow
+ * while the object is being tracked.
+ * <p>
+ * The points are stored interleaved in a single array, POINT_SIZE floats per point, in the layout
+ * expected by Lib.generateCurve(). The array has room for one point more than the capacity; the
+ * spare slot holds a temporary extrapolated point when drawing.
+ */
+class TrackHistory {
+    static final int CENTER_X = 0;
+    static final int CENTER_Y = 1;
+    static final int DIRECTION_X = 2;
+    static final int DIRECTION_Y = 3;
+    static final int LENGTH = 4;
+    static final int RADIUS = 5;
+    static final int VELOCITY = 6;
+    static final int POINT_SIZE = 7;
+    private final float[] mPoints;
+    private final int mCapacity;
+    private final int mSlots;
+    private int mNewest = -1;
+    private int mSize = 0;
+
+    /**
+     * @param capacity maximum number of points to remember
+     */
+    TrackHistory(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Bad history capacity");
+        mCapacity = capacity;
+        mSlots = capacity + 1;
+        mPoints = new float[mSlots * POINT_SIZE];
+    }
+
+    /**
+     * Appends the i-th detection of a batch, possibly overwriting the oldest point.
+     */
+    void add(Lib.DetectionBatch batch, int i) {
+        mNewest = (mNewest + 1) % mSlots;
+        if (mSize < mCapacity) mSize++;
+
+        int o = mNewest * POINT_SIZE;
+        mPoints[o + CENTER_X] = batch.centerX[i];
+        mPoints[o + CENTER_Y] = batch.centerY[i];
+        mPoints[o + DIRECTION_X] = batch.directionX[i];
+        mPoints[o + DIRECTION_Y] = batch.directionY[i];
+        mPoints[o + LENGTH] = batch.length[i];
+        mPoints[o + RADIUS] = batch.radius[i];
+        mPoints[o + VELOCITY] = batch.velocity[i];
+    }
+
+    /**
+     * @param age 0 for the newest point, 1 for the point before it, etc.
+     * @param field one of the field offsets, e.g. CENTER_X
+     * @return the requested value
+     */
+    float get(int age, int field) {
+        if (age < 0 || age >= mSize) throw new RuntimeException("Bad history index");
+        int index = (mNewest - age + mSlots) % mSlots;
+        return mPoints[index * POINT_SIZE + field];
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void generateCurve(float[] rgba, TriangleStripRenderer.Buffers b) {
+        if (mSize == 0) return;
+        MeasuredLib.generateCurve(mPoints, mNewest, mSize, rgba, b);
+    }
+
+    /**
+     * Same as generateCurve(), but the curve is extended by a point that is a copy of the newest
+     * point, shifted by the given displacement. The history itself is not modified.
+     */
+    void generateExtrapolatedCurve(float dx, float dy, float[] rgba,
+                                   TriangleStripRenderer.Buffers b) {
+        if (mSize == 0) return;
+        int extra = (mNewest + 1) % mSlots;
+        System.arraycopy(mPoints, mNewest * POINT_SIZE, mPoints, extra * POINT_SIZE, POINT_SIZE);
+        mPoints[extra * POINT_SIZE + CENTER_X] += dx;
+        mPoints[extra * POINT_SIZE + CENTER_Y] += dy;
+        MeasuredLib.generateCurve(mPoints, extra, mSize + 1, rgba, b);
+    }
+}
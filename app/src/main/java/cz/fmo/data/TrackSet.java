@@ -24,6 +24,7 @@ public class TrackSet {
     private int mWidth = 1;  // width of the source image (not necessarily the screen width)
     private int mHeight = 1; // height of the source image (not necessarily the screen height)
     private int mTrackCounter = 0;
+    private Lib.DetectionBatch mAdapterBatch = null;
 
     private TrackSet() {
     }
@@ -46,7 +47,7 @@ public class TrackSet {
      * @param width  width of the source image (not the screen)
      * @param height height of the source image (not the screen)
      */
-    public void addDetections(Lib.Detection[] detections, int width, int height) {
+    public void addDetections(Lib.DetectionBatch batch, int width, int height) {
         synchronized (mLock) {
             if (mConfig == null) return;
             mWidth = width;
@@ -60,13 +61,13 @@ public class TrackSet {
             }
 
             mCurrentTrackMap.clear();
-            for (Lib.Detection detection : detections) {
-                if (detection.id < 0) {
+            for (int i = 0; i < batch.size; i++) {
+                if (batch.id[i] < 0) {
                     throw new RuntimeException("ID of a detection not specified");
                 }
 
                 // get the track of the predecessor
-                Track track = mPreviousTrackMap.get(detection.predecessorId);
+                Track track = mPreviousTrackMap.get(batch.predecessorId[i]);
                 if (track == null) {
                     // no predecessor/track not found: make a new track
                     mTrackCounter++;
@@ -79,10 +80,41 @@ public class TrackSet {
                     mTracks.add(track);
                 }
 
-                detection.predecessor = track.getLatest();
-                track.setLatest(detection);
-                mCurrentTrackMap.put(detection.id, track);
+                track.setLatest(batch, i);
+                mCurrentTrackMap.put(batch.id[i], track);
+            }
+        }
+    }
+
+    /**
+     * Adapter for callers that still work with detection objects; prefer the batch variant.
+     */
+    public void addDetections(Lib.Detection[] detections, int width, int height) {
+        synchronized (mLock) {
+            if (mAdapterBatch == null || mAdapterBatch.capacity < detections.length) {
+                mAdapterBatch = new Lib.DetectionBatch(detections.length);
+            }
+            mAdapterBatch.fromArray(detections);
+            addDetections(mAdapterBatch, width, height);
+        }
+    }
+
+    /**
+     * Predicts where the recently updated tracks will appear in the next frame.
+     *
+     * @param out      array to be filled with four values per track: centerX, centerY,
+     *                 halfWidth, halfHeight, in source image coordinates
+     * @param maxAgeNs tracks not updated for longer than this are skipped
+     * @return the number of predictions written
+     */
+    public int predictRegions(float[] out, long maxAgeNs) {
+        synchronized (mLock) {
+            int count = 0;
+            for (Track track : mTracks) {
+                if (4 * (count + 1) > out.length) break;
+                if (track.predictRegion(out, 4 * count, maxAgeNs)) count++;
             }
+            return count;
         }
     }
 
@@ -0,0 +1,135 @@
+package cz.fmo.detection;
+
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/**
+ * Predicts how long it takes to get a camera frame through detection. The time is modelled as a
+ * fixed cost per frame, plus a cost per captured pixel (copying the frame and reading it while
+ * downscaling), plus a cost per pixel at the processing resolution (the detection itself).
+ * <p>
+ * The coefficients are fitted to measurements taken on the device by the cost calibration
+ * benchmark and kept in the shared preferences. Until the calibration has been run, rough
+ * defaults are used.
+ */
+public final class CostModel {
+    private static final float DEFAULT_FIXED_NS = 500000;
+    private static final float DEFAULT_INPUT_NS = 1.f;
+    private static final float DEFAULT_PROC_NS = 50.f;
+    private static final String KEY_FIXED = "costModelFixedNs";
+    private static final String KEY_INPUT = "costModelInputNs";
+    private static final String KEY_PROC = "costModelProcNs";
+    private final float mFixedNs;
+    private final float mInputNs;
+    private final float mProcNs;
+    private final boolean mCalibrated;
+
+    /**
+     * @param fixedNs    time per frame, in nanoseconds
+     * @param inputNs    time per captured pixel, in nanoseconds
+     * @param procNs     time per pixel at the processing resolution, in nanoseconds
+     * @param calibrated whether the coefficients have been measured on this device
+     */
+    public CostModel(float fixedNs, float inputNs, float procNs, boolean calibrated) {
+        mFixedNs = fixedNs;
+        mInputNs = inputNs;
+        mProcNs = procNs;
+        mCalibrated = calibrated;
+    }
+
+    /**
+     * @return the calibrated model stored in the preferences, or the default model
+     */
+    public static CostModel load(SharedPreferences p) {
+        if (!p.contains(KEY_PROC)) {
+            return new CostModel(DEFAULT_FIXED_NS, DEFAULT_INPUT_NS, DEFAULT_PROC_NS, false);
+        }
+        return new CostModel(p.getFloat(KEY_FIXED, DEFAULT_FIXED_NS),
+                p.getFloat(KEY_INPUT, DEFAULT_INPUT_NS), p.getFloat(KEY_PROC, DEFAULT_PROC_NS),
+                true);
+    }
+
+    /**
+     * Stores the model, so that it is used by the subsequent recording sessions.
+     */
+    public void save(SharedPreferences p) {
+        p.edit()
+                .putFloat(KEY_FIXED, mFixedNs)
+                .putFloat(KEY_INPUT, mInputNs)
+                .putFloat(KEY_PROC, mProcNs)
+                .apply();
+    }
+
+    /**
+     * Fits the coefficients to measured times using least squares. Coefficients that come out
+     * negative are set to zero.
+     *
+     * @param shapes one row per measurement: width, height, processing width, processing height
+     * @param ns     measured time per frame for each row, in nanoseconds
+     * @return the fitted model, or null if the measurements do not determine the coefficients
+     */
+    public static CostModel fit(int[][] shapes, long[] ns) {
+        // normal equations of the linear least squares problem
+        double[][] a = new double[3][4];
+        for (int i = 0; i < shapes.length; i++) {
+            double[] x = {1, (double) shapes[i][0] * shapes[i][1],
+                    (double) shapes[i][2] * shapes[i][3]};
+            for (int r = 0; r < 3; r++) {
+                for (int c = 0; c < 3; c++) {
+                    a[r][c] += x[r] * x[c];
+                }
+                a[r][3] += x[r] * ns[i];
+            }
+        }
+
+        // Gauss-Jordan elimination with partial pivoting
+        for (int c = 0; c < 3; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < 3; r++) {
+                if (Math.abs(a[r][c]) > Math.abs(a[pivot][c])) pivot = r;
+            }
+            if (Math.abs(a[pivot][c]) < 1e-9 * Math.abs(a[0][0])) return null;
+            double[] temp = a[c];
+            a[c] = a[pivot];
+            a[pivot] = temp;
+
+            for (int r = 0; r < 3; r++) {
+                if (r == c) continue;
+                double f = a[r][c] / a[c][c];
+                for (int k = c; k < 4; k++) {
+                    a[r][k] -= f * a[c][k];
+                }
+            }
+        }
+
+        float fixed = (float) Math.max(0, a[0][3] / a[0][0]);
+        float input = (float) Math.max(0, a[1][3] / a[1][1]);
+        float proc = (float) Math.max(0, a[2][3] / a[2][2]);
+        return new CostModel(fixed, input, proc, true);
+    }
+
+    /**
+     * @param width      capture width
+     * @param height     capture height
+     * @param procWidth  width at the processing resolution
+     * @param procHeight height at the processing resolution
+     * @return predicted time per frame, in nanoseconds
+     */
+    public float predictNs(int width, int height, int procWidth, int procHeight) {
+        return mFixedNs + mInputNs * width * height + mProcNs * procWidth * procHeight;
+    }
+
+    /**
+     * @return whether the coefficients have been measured on this device
+     */
+    public boolean isCalibrated() {
+        return mCalibrated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s, %.2f ms + %.2f ns/px + %.1f ns/proc px",
+                mCalibrated ? "calibrated" : "default", mFixedNs / 1e6f, mInputNs, mProcNs);
+    }
+}
@@ -0,0 +1,483 @@
+package cz.fmo.detection;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.DetectionRing;
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+import cz.fmo.camera.Frame;
+import cz.fmo.camera.FrameSource;
+import cz.fmo.recording.LumaRing;
+import cz.fmo.util.Config;
+import cz.fmo.util.GenericThread;
+
+/**
+ * A separate thread that runs detection on camera frames. Frames are handed over using the
+ * submit() method, which never blocks: frames wait in a bounded queue and, if detection cannot
+ * keep up, some of them are dropped according to the configured policy. Optionally, frames are
+ * skipped up front, so that detection only runs on every k-th frame.
+ * <p>
+ * The thread creates and releases its own detector instance, so that it does not interfere with
+ * other detectors running at the same time. The detector is restricted to the detection zones
+ * given in the configuration, if any. If adaptive processing resolution is enabled, the detector
+ * is reconfigured whenever the ResolutionController decides that the resolution should change.
+ * <p>
+ * Optionally, frames are shrunk to the processing resolution by a Downscaler before they reach the
+ * detector. The detector then works with the small frames, and its detections are scaled back to
+ * the coordinates of the submitted frames before they are reported.
+ * <p>
+ * In comparison mode, each frame is processed by two detector configurations using a
+ * DetectorComparison; the first one is the regular configuration, whose detections are reported as
+ * usual. Adaptive resolution, ROI detection and Java-side downscaling are disabled in this mode, so
+ * that both configurations see the same full frames.
+ * <p>
+ * If a DetectionRing is given, the detector writes its detections into the ring, and the callback
+ * is only used for log messages; it is up to the consumer to poll the ring. The ring is not used
+ * in comparison mode.
+ * <p>
+ * In tile mode, each frame is split into overlapping tiles that are processed on several threads
+ * at once by a TileDetector. ROI detection, Java-side downscaling and the result ring are disabled
+ * in this mode.
+ * <p>
+ * If a LumaRing is set, every frame that reaches this thread is pushed into it before detection,
+ * so that the downscaling it involves does not hold up the camera thread.
+ * <p>
+ * The thread can be used directly as the callback of any FrameSource, in which case every frame
+ * produced by the source is submitted.
+ */
+public class DetectionThread extends GenericThread<DetectionThreadHandler>
+        implements FrameSource.Callback {
+    private final FrameQueue mQueue;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mGray;
+    private final float[][] mZones;
+    private final Lib.DetectionBatch mBatch;
+    private final Lib.Callback mCb;
+    private final DetectionRing mRing;
+    private final ScalingCallback mScalingCb;
+    private final boolean mJavaDownscale;
+    private final int mTileThreads;
+    private final boolean mCompare;
+    private final int mCompareProcRes;
+    private final boolean mCompareGray;
+    private final ResolutionController mController;
+    private final RoiPlanner mRoiPlanner;
+    private final FrameSkipper mSkipper;
+    private final int[] mRects = new int[4 * RoiPlanner.MAX_REGIONS];
+    private ByteBuffer mMask;
+    private int mMaskWidth = 0;
+    private int mMaskHeight = 0;
+    private LumaRing mLumaRing = null;
+    private Downscaler mDownscaler = null;
+    private long mDetector = 0;
+    private TileDetector mTiles = null;
+    private volatile long mNumSeamDuplicates = 0;
+    private DetectorComparison mComparison = null;
+    private volatile String mComparisonReport = null;
+    private volatile int mProcRes;
+    private volatile long mNumProcessed = 0;
+
+    /**
+     * @param width   width of the frames that will be submitted
+     * @param height  height of the frames that will be submitted
+     * @param procRes processing resolution to start with, planned together with the frame size
+     * @param batch   batch to be filled with detections
+     * @param cb      callback to report detections to
+     * @param ring    ring to write detections to instead of reporting them to the callback, or
+     *                null
+     */
+    public DetectionThread(Config config, int width, int height, int procRes,
+                           Lib.DetectionBatch batch, Lib.Callback cb, DetectionRing ring) {
+        super("DetectionThread");
+        mQueue = new FrameQueue(config.detectionQueueSize, config.dropPolicy);
+        mWidth = width;
+        mHeight = height;
+        mGray = config.gray;
+        mZones = config.detectionZones;
+        mBatch = batch;
+        mCb = cb;
+        mScalingCb = new ScalingCallback(cb);
+        mCompare = config.compareDetectors;
+        mCompareProcRes = config.compareProcRes;
+        mCompareGray = config.compareGray;
+        mTileThreads = mCompare ? 1 : Math.max(1, config.tileThreads);
+        boolean tiled = mTileThreads > 1;
+        mJavaDownscale = config.javaDownscale && !mCompare && !tiled;
+        mRing = (mCompare || tiled) ? null : ring;
+        mProcRes = procRes;
+
+        if (config.adaptiveProcRes && !mCompare) {
+            mController = new ResolutionController(procRes, config.frameBudgetMs);
+            mProcRes = mController.getProcRes();
+        } else {
+            mController = null;
+        }
+
+        mRoiPlanner = (config.roiDetection && !mCompare && !tiled) ?
+                new RoiPlanner(width, height) : null;
+        mSkipper = config.frameSkipping ? new FrameSkipper() : null;
+    }
+
+    /**
+     * Sets a ring to keep the frames in for later re-detection. Must be called before start().
+     */
+    public void setLumaRing(LumaRing ring) {
+        mLumaRing = ring;
+    }
+
+    @Override
+    protected void setup(DetectionThreadHandler handler) {
+        if (mCompare) {
+            updateMask(mWidth, mHeight);
+            mComparison = new DetectorComparison(mWidth, mHeight, mProcRes, mGray, mCompareProcRes,
+                    mCompareGray, mMask, mBatch.capacity, mCb);
+        } else {
+            startDetector();
+        }
+    }
+
+    /**
+     * Starts the detector with the current processing resolution. If Java-side downscaling is
+     * enabled, the Downscaler is replaced first, unless the downscaling factor stays the same.
+     */
+    private void startDetector() {
+        if (mTileThreads > 1) {
+            updateMask(mWidth, mHeight);
+            mTiles = new TileDetector(mWidth, mHeight, mProcRes, mGray, mMask, mTileThreads,
+                    mBatch, mCb);
+            return;
+        }
+
+        int factor = mJavaDownscale ? Downscaler.factorFor(mHeight, mProcRes) : 1;
+
+        if (mDownscaler != null && mDownscaler.getFactor() != factor) {
+            mDownscaler.release();
+            mDownscaler = null;
+        }
+
+        if (factor == 1) {
+            updateMask(mWidth, mHeight);
+            mDetector = createDetector(mWidth, mHeight, mCb);
+            return;
+        }
+
+        if (mDownscaler == null) {
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            mDownscaler = new Downscaler(mWidth, mHeight, factor, mGray, numThreads);
+        }
+
+        int width = mDownscaler.getWidth();
+        int height = mDownscaler.getHeight();
+        updateMask(width, height);
+        mScalingCb.setFactor(factor);
+        mDetector = createDetector(width, height, mScalingCb);
+    }
+
+    /**
+     * Makes sure that the zone mask is the one for images of the given size. The zones are only
+     * rasterized again when the size differs from that of the current mask, so that reconfiguring
+     * the detector does not allocate a new mask each time.
+     */
+    private void updateMask(int width, int height) {
+        if (mMaskWidth == width && mMaskHeight == height) return;
+        mMask = ZoneMask.rasterize(mZones, width, height);
+        mMaskWidth = width;
+        mMaskHeight = height;
+    }
+
+    /**
+     * Creates a detector that reports to the ring, if there is one, or to the given callback.
+     */
+    private long createDetector(int width, int height, Lib.Callback cb) {
+        if (mRing != null) {
+            return MeasuredLib.detectorCreate(width, height, mProcRes, mGray, mMask, mRing, mCb);
+        }
+        return MeasuredLib.detectorCreate(width, height, mProcRes, mGray, mMask, mBatch, cb);
+    }
+
+    private void stopDetector() {
+        if (mTiles != null) {
+            mNumSeamDuplicates += mTiles.getNumSeamDuplicates();
+            mTiles.release();
+            mTiles = null;
+        }
+
+        if (mDetector == 0) return;
+        MeasuredLib.detectorDestroy(mDetector);
+        mDetector = 0;
+    }
+
+    /**
+     * Enqueues a frame for detection. Takes ownership of the frame. May be called from any thread,
+     * even after the thread has been killed, in which case the frame is recycled.
+     */
+    public void submit(Frame frame) {
+        DetectionThreadHandler handler = getHandlerIfRunning();
+
+        if (handler == null || (mSkipper != null && !mSkipper.accept())) {
+            frame.recycle();
+            return;
+        }
+
+        mQueue.offer(frame);
+        handler.sendFrame();
+    }
+
+    @Override
+    public void onCameraFrame(Frame frame) {
+        submit(frame);
+    }
+
+    @Override
+    public void onCameraError() {
+    }
+
+    /**
+     * Runs detection on all frames waiting in the queue.
+     */
+    void processFrames() {
+        Frame frame;
+        while ((frame = mQueue.poll()) != null) {
+            if (mLumaRing != null) mLumaRing.push(frame.getData(), frame.getTimestamp());
+            long start = System.nanoTime();
+            detect(frame);
+            long ns = System.nanoTime() - start;
+            frame.recycle();
+            mNumProcessed++;
+
+            if (mSkipper != null) {
+                mSkipper.onDetection(ns);
+            }
+
+            if (mController != null && mController.onFrame(ns)) {
+                reconfigure(mController.getProcRes());
+            }
+        }
+    }
+
+    /**
+     * Runs detection either on the whole frame, or only on the regions planned by the RoiPlanner.
+     * In comparison mode, both compared configurations process the whole frame instead.
+     */
+    private void detect(Frame frame) {
+        if (mComparison != null) {
+            mComparison.process(frame.getData(), frame.getTimestamp());
+            return;
+        }
+
+        if (mTiles != null) {
+            mTiles.process(frame.getData(), frame.getTimestamp());
+            return;
+        }
+
+        mBatch.timestamp = frame.getTimestamp();
+
+        int numRects = (mRoiPlanner == null) ? 0 : mRoiPlanner.plan(mRects);
+        ByteBuffer data = frame.getData();
+
+        if (mDownscaler != null) {
+            data = mDownscaler.process(data);
+            numRects = scaleRects(numRects, mDownscaler.getFactor());
+        }
+
+        if (mRing != null) mRing.beforeFrame();
+
+        if (numRects == 0) {
+            MeasuredLib.detectorFrame(mDetector, data);
+        } else {
+            MeasuredLib.detectorFrameRoi(mDetector, data, mRects, numRects);
+        }
+
+        if (mRing != null) {
+            int factor = (mDownscaler == null) ? 1 : mDownscaler.getFactor();
+            mRing.afterFrame(frame.getTimestamp(), factor);
+        }
+    }
+
+    /**
+     * Converts the planned regions to the coordinates of downscaled frames. Regions that shrink to
+     * nothing are removed.
+     *
+     * @return the number of remaining regions
+     */
+    private int scaleRects(int numRects, int factor) {
+        int width = mDownscaler.getWidth();
+        int height = mDownscaler.getHeight();
+        int numScaled = 0;
+
+        for (int i = 0; i < numRects; i++) {
+            int x = mRects[4 * i];
+            int y = mRects[4 * i + 1];
+            int x0 = x / factor;
+            int y0 = y / factor;
+            int x1 = Math.min(width, (x + mRects[4 * i + 2] + factor - 1) / factor);
+            int y1 = Math.min(height, (y + mRects[4 * i + 3] + factor - 1) / factor);
+            if (x1 <= x0 || y1 <= y0) continue;
+
+            mRects[4 * numScaled] = x0;
+            mRects[4 * numScaled + 1] = y0;
+            mRects[4 * numScaled + 2] = x1 - x0;
+            mRects[4 * numScaled + 3] = y1 - y0;
+            numScaled++;
+        }
+
+        return numScaled;
+    }
+
+    /**
+     * Restarts the detector with a different processing resolution.
+     */
+    private void reconfigure(int procRes) {
+        mCb.log("Processing resolution " + mProcRes + " -> " + procRes + ", mean " +
+                (mController.getMeanNs() / 1000) + " us/frame");
+        mProcRes = procRes;
+        stopDetector();
+        startDetector();
+    }
+
+    @Override
+    protected DetectionThreadHandler makeHandler() {
+        return new DetectionThreadHandler(this);
+    }
+
+    @Override
+    protected void teardown() {
+        mQueue.clear();
+        stopDetector();
+
+        if (mComparison != null) {
+            mComparisonReport = mComparison.getReport();
+            mComparison.release();
+            mComparison = null;
+        }
+
+        if (mDownscaler != null) {
+            mDownscaler.release();
+            mDownscaler = null;
+        }
+    }
+
+    /**
+     * @return the number of frames submitted so far
+     */
+    public long getNumReceived() {
+        return mQueue.getNumReceived();
+    }
+
+    /**
+     * @return the number of frames that went through detection so far
+     */
+    public long getNumProcessed() {
+        return mNumProcessed;
+    }
+
+    /**
+     * @return the number of frames dropped so far because detection could not keep up
+     */
+    public long getNumDropped() {
+        return mQueue.getNumDropped();
+    }
+
+    /**
+     * @return mean number of pixels submitted for detection per frame, or 0 if ROI detection is
+     * disabled
+     */
+    public long getMeanPixelsPerFrame() {
+        return (mRoiPlanner == null) ? 0 : mRoiPlanner.getMeanPixels();
+    }
+
+    /**
+     * @return the current frame-skipping stride (detection runs on every k-th frame), or 1 if frame
+     * skipping is disabled
+     */
+    public int getSkipStride() {
+        return (mSkipper == null) ? 1 : mSkipper.getStride();
+    }
+
+    /**
+     * @return the number of frames skipped so far, or 0 if frame skipping is disabled
+     */
+    public long getNumSkipped() {
+        return (mSkipper == null) ? 0 : mSkipper.getNumSkipped();
+    }
+
+    /**
+     * @return the processing resolution currently used by the detector
+     */
+    public int getProcRes() {
+        return mProcRes;
+    }
+
+    /**
+     * @return the number of frames whose detection exceeded the frame budget, or 0 if adaptive
+     * processing resolution is disabled
+     */
+    public long getNumBudgetMisses() {
+        return (mController == null) ? 0 : mController.getNumBudgetMisses();
+    }
+
+    /**
+     * @return mean detection time per frame in nanoseconds over the last evaluation window, or 0
+     * if adaptive processing resolution is disabled
+     */
+    public long getMeanDetectionNs() {
+        return (mController == null) ? 0 : mController.getMeanNs();
+    }
+
+    /**
+     * @return the number of tiles each frame is split into, 1 if tile mode is disabled
+     */
+    public int getNumTiles() {
+        return mTileThreads;
+    }
+
+    /**
+     * @return the number of detections removed as duplicates at tile seams, available once the
+     * thread has finished
+     */
+    public long getNumSeamDuplicates() {
+        return mNumSeamDuplicates;
+    }
+
+    /**
+     * @return results of the comparison of two detector configurations, or null if comparison
+     * mode is disabled; available once the thread has finished
+     */
+    public String getComparisonReport() {
+        return mComparisonReport;
+    }
+
+    /**
+     * Scales detections made in downscaled frames back to the coordinates of the submitted frames.
+     */
+    private static class ScalingCallback implements Lib.Callback {
+        private final Lib.Callback mCb;
+        private int mFactor = 1;
+
+        ScalingCallback(Lib.Callback cb) {
+            mCb = cb;
+        }
+
+        void setFactor(int factor) {
+            mFactor = factor;
+        }
+
+        @Override
+        public void log(String message) {
+            mCb.log(message);
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                batch.centerX[i] *= mFactor;
+                batch.centerY[i] *= mFactor;
+                batch.length[i] *= mFactor;
+                batch.radius[i] *= mFactor;
+                batch.velocity[i] *= mFactor;
+            }
+            mCb.onObjectsDetected(batch);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package cz.fmo.detection;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Message handler for DetectionThread.
+ */
+public class DetectionThreadHandler extends android.os.Handler {
+    private static final int KILL = 1;
+    private static final int FRAME = 2;
+    private final WeakReference<DetectionThread> mThreadRef;
+
+    DetectionThreadHandler(DetectionThread thread) {
+        mThreadRef = new WeakReference<>(thread);
+    }
+
+    /**
+     * Send a command to end the execution of the thread as soon as possible.
+     */
+    public void sendKill() {
+        if (hasMessages(KILL)) return;
+        sendMessage(obtainMessage(KILL));
+    }
+
+    /**
+     * Send a notification that there are frames waiting in the queue.
+     */
+    void sendFrame() {
+        if (hasMessages(FRAME)) return;
+        sendMessage(obtainMessage(FRAME));
+    }
+
+    @Override
+    public void handleMessage(android.os.Message msg) {
+        DetectionThread thread = mThreadRef.get();
+        if (thread == null) return;
+        switch (msg.what) {
+            case KILL:
+                thread.kill();
+                break;
+            case FRAME:
+                thread.processFrames();
+                break;
+        }
+    }
+}
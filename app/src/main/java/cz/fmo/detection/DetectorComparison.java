@@ -0,0 +1,190 @@
+package cz.fmo.detection;
+
+import android.os.Debug;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+
+/**
+ * Runs two detector configurations on the same frames, one after the other, and collects data for
+ * choosing between them: wall-clock latency and thread CPU time per frame for each configuration,
+ * and how often their detections disagree. Only the detector calls are timed, and the order of the
+ * configurations alternates between frames, so that neither of them always gets the warm caches.
+ * <p>
+ * Detections of the two configurations are matched greedily by distance between centers; two
+ * detections match if they are closer than the sum of their radii, or MIN_MATCH_DISTANCE pixels.
+ * A frame disagrees if any detection is left unmatched. Detections of the first configuration are
+ * forwarded to the provided callback once both configurations are done, so that the rest of the
+ * application works as usual.
+ * <p>
+ * The class does not care where the frames come from; all methods must be called from a single
+ * thread.
+ */
+public class DetectorComparison {
+    private static final float MIN_MATCH_DISTANCE = 8.f;
+    private final Side mA;
+    private final Side mB;
+    private final Lib.Callback mCb;
+    private long mNumFrames = 0;
+    private long mNumDisagreements = 0;
+    private long mNumMatched = 0;
+
+    /**
+     * @param width    width of the frames that will be processed
+     * @param height   height of the frames that will be processed
+     * @param procResA processing resolution of the first configuration
+     * @param grayA    color space of the first configuration
+     * @param procResB processing resolution of the second configuration
+     * @param grayB    color space of the second configuration
+     * @param mask     detection mask shared by both configurations, or null
+     * @param capacity maximum number of detections per frame
+     * @param cb       callback to forward detections of the first configuration to
+     */
+    public DetectorComparison(int width, int height, int procResA, boolean grayA, int procResB,
+                              boolean grayB, ByteBuffer mask, int capacity, Lib.Callback cb) {
+        mA = new Side(width, height, procResA, grayA, mask, capacity, cb);
+        mB = new Side(width, height, procResB, grayB, mask, capacity, cb);
+        mCb = cb;
+    }
+
+    /**
+     * Runs both configurations on a frame and compares the results.
+     *
+     * @param timestamp frame time in nanoseconds, reported in the detection batches
+     */
+    public void process(ByteBuffer dataYUV420SP, long timestamp) {
+        mA.mBatch.timestamp = timestamp;
+        mB.mBatch.timestamp = timestamp;
+
+        if (mNumFrames % 2 == 0) {
+            mA.process(dataYUV420SP);
+            mB.process(dataYUV420SP);
+        } else {
+            mB.process(dataYUV420SP);
+            mA.process(dataYUV420SP);
+        }
+        mNumFrames++;
+
+        int matched = match();
+        mNumMatched += matched;
+        if (matched != mA.mCount || matched != mB.mCount) mNumDisagreements++;
+
+        if (mA.mCount > 0) mCb.onObjectsDetected(mA.mBatch);
+    }
+
+    /**
+     * @return the number of matched pairs of detections in the last frame
+     */
+    private int match() {
+        Lib.DetectionBatch a = mA.mBatch;
+        Lib.DetectionBatch b = mB.mBatch;
+        long used = 0; // bit mask of matched detections in b
+        int matched = 0;
+
+        for (int i = 0; i < mA.mCount; i++) {
+            int best = -1;
+            float bestDist = Float.MAX_VALUE;
+
+            for (int j = 0; j < mB.mCount && j < 64; j++) {
+                if ((used & (1L << j)) != 0) continue;
+                float dx = a.centerX[i] - b.centerX[j];
+                float dy = a.centerY[i] - b.centerY[j];
+                float dist = (float) Math.sqrt(dx * dx + dy * dy);
+                float limit = Math.max(MIN_MATCH_DISTANCE, a.radius[i] + b.radius[j]);
+                if (dist < limit && dist < bestDist) {
+                    best = j;
+                    bestDist = dist;
+                }
+            }
+
+            if (best >= 0) {
+                used |= 1L << best;
+                matched++;
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * Releases both detectors.
+     */
+    public void release() {
+        mA.release();
+        mB.release();
+    }
+
+    /**
+     * @return a human-readable summary of the measurements so far
+     */
+    public String getReport() {
+        return String.format(Locale.US, "A %s, B %s, %d frames, %d disagree (%.1f %%), " +
+                        "%d matched, %d only A, %d only B", mA.describe(), mB.describe(),
+                mNumFrames, mNumDisagreements, 100.f * mNumDisagreements / Math.max(1, mNumFrames),
+                mNumMatched, mA.mTotal - mNumMatched, mB.mTotal - mNumMatched);
+    }
+
+    /**
+     * One of the compared configurations, with its own detector and statistics.
+     */
+    private static class Side implements Lib.Callback {
+        private final int mProcRes;
+        private final boolean mGray;
+        private final Lib.DetectionBatch mBatch;
+        private final Lib.Callback mCb;
+        private long mDetector;
+        private int mCount = 0;
+        private long mTotal = 0;
+        private long mNumFrames = 0;
+        private long mWallNs = 0;
+        private long mCpuNs = 0;
+
+        Side(int width, int height, int procRes, boolean gray, ByteBuffer mask, int capacity,
+             Lib.Callback cb) {
+            mProcRes = procRes;
+            mGray = gray;
+            mBatch = new Lib.DetectionBatch(capacity);
+            mCb = cb;
+            mDetector = MeasuredLib.detectorCreate(width, height, procRes, gray, mask, mBatch,
+                    this);
+        }
+
+        void process(ByteBuffer data) {
+            mCount = 0;
+
+            long cpuStart = Debug.threadCpuTimeNanos();
+            long wallStart = System.nanoTime();
+            MeasuredLib.detectorFrame(mDetector, data);
+            mWallNs += System.nanoTime() - wallStart;
+            mCpuNs += Debug.threadCpuTimeNanos() - cpuStart;
+
+            mNumFrames++;
+            mTotal += mCount;
+        }
+
+        void release() {
+            if (mDetector == 0) return;
+            MeasuredLib.detectorDestroy(mDetector);
+            mDetector = 0;
+        }
+
+        String describe() {
+            long n = Math.max(1, mNumFrames);
+            return String.format(Locale.US, "(procRes %d %s: %.2f ms wall, %.2f ms CPU)",
+                    mProcRes, mGray ? "gray" : "yuv", mWallNs / 1e6f / n, mCpuNs / 1e6f / n);
+        }
+
+        @Override
+        public void log(String message) {
+            mCb.log(message);
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+            mCount = batch.size;
+        }
+    }
+}
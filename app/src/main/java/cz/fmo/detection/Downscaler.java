@@ -0,0 +1,253 @@
+package cz.fmo.detection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Shrinks NV21 frames by an integer factor using a box filter, before they are handed over to the
+ * detector. The output is split into horizontal strips that are processed in parallel: the calling
+ * thread processes the first strip, persistent worker threads process the rest.
+ * <p>
+ * In gray mode, only the luma plane is downscaled; the chroma plane of the output is set to
+ * neutral gray once and never touched again.
+ */
+public class Downscaler {
+    private final int mInWidth;
+    private final int mInHeight;
+    private final int mFactor;
+    private final int mOutWidth;
+    private final int mOutHeight;
+    private final boolean mGray;
+    private final ByteBuffer mOut;
+    private final Strip[] mStrips;
+    private final Object mLock = new Object();
+    private ByteBuffer mIn = null;
+    private int mGeneration = 0;
+    private int mPending = 0;
+    private boolean mReleased = false;
+
+    /**
+     * @param inWidth    width of the input frames
+     * @param inHeight   height of the input frames
+     * @param factor     downscaling factor, at least 2
+     * @param gray       whether the chroma plane can be ignored
+     * @param numThreads number of threads to use, including the calling thread
+     */
+    public Downscaler(int inWidth, int inHeight, int factor, boolean gray, int numThreads) {
+        if (factor < 2) throw new IllegalArgumentException("Bad downscaling factor");
+        mInWidth = inWidth;
+        mInHeight = inHeight;
+        mFactor = factor;
+        mOutWidth = (inWidth / factor) & ~1;
+        mOutHeight = (inHeight / factor) & ~1;
+        mGray = gray;
+        mOut = ByteBuffer.allocateDirect(mOutWidth * mOutHeight * 3 / 2);
+
+        if (gray) {
+            for (int i = mOutWidth * mOutHeight; i < mOut.capacity(); i++) {
+                mOut.put(i, (byte) 128);
+            }
+        }
+
+        // split the output into strips of whole chroma rows (pairs of luma rows)
+        int numPairs = mOutHeight / 2;
+        numThreads = Math.max(1, Math.min(numThreads, numPairs));
+        mStrips = new Strip[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            int first = 2 * ((numPairs * i) / numThreads);
+            int last = 2 * ((numPairs * (i + 1)) / numThreads);
+            mStrips[i] = new Strip(first, last);
+        }
+
+        for (int i = 1; i < numThreads; i++) {
+            Thread worker = new Worker(mStrips[i], i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the smallest factor that brings the frame height down to procRes or below
+     */
+    public static int factorFor(int inHeight, int procRes) {
+        return Math.max(1, (inHeight + procRes - 1) / procRes);
+    }
+
+    /**
+     * Downscales a frame. Blocks until all strips are done.
+     *
+     * @param in NV21 frame of the input size
+     * @return NV21 frame of the output size; the buffer is reused by the next call
+     */
+    public ByteBuffer process(ByteBuffer in) {
+        synchronized (mLock) {
+            if (mReleased) throw new RuntimeException("Process after release");
+            mIn = in;
+            mPending = mStrips.length - 1;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+
+        mStrips[0].process(in);
+
+        // the workers are still writing into the output, so an interrupt must not cut this short
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mIn = null;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        mOut.clear();
+        return mOut;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+    }
+
+    public int getFactor() {
+        return mFactor;
+    }
+
+    public int getWidth() {
+        return mOutWidth;
+    }
+
+    public int getHeight() {
+        return mOutHeight;
+    }
+
+    /**
+     * A range of output rows, with private scratch memory so that strips can run concurrently.
+     */
+    private class Strip {
+        private final int mFirst;
+        private final int mLast;
+        private final byte[] mInRow;
+        private final byte[] mOutRow;
+        private final int[] mSums;
+        private final ByteBuffer mOutView;
+
+        /**
+         * @param first first output luma row, even
+         * @param last  output luma row past the last one, even
+         */
+        Strip(int first, int last) {
+            mFirst = first;
+            mLast = last;
+            mInRow = new byte[mOutWidth * mFactor];
+            mOutRow = new byte[mOutWidth];
+            mSums = new int[mOutWidth];
+            mOutView = mOut.duplicate();
+        }
+
+        void process(ByteBuffer in) {
+            ByteBuffer inView = in.duplicate();
+            int area = mFactor * mFactor;
+
+            for (int y = mFirst; y < mLast; y++) {
+                // luma: average factor x factor blocks
+                Arrays.fill(mSums, 0);
+                for (int r = 0; r < mFactor; r++) {
+                    readRow(inView, (y * mFactor + r) * mInWidth);
+                    for (int x = 0, i = 0; x < mOutWidth; x++) {
+                        int sum = 0;
+                        for (int c = 0; c < mFactor; c++, i++) sum += mInRow[i] & 0xFF;
+                        mSums[x] += sum;
+                    }
+                }
+                writeRow(y * mOutWidth, mOutWidth, area);
+            }
+
+            if (mGray) return;
+
+            int inChroma = mInWidth * mInHeight;
+            int outChroma = mOutWidth * mOutHeight;
+
+            for (int y = mFirst / 2; y < mLast / 2; y++) {
+                // chroma: average factor x factor blocks of interleaved V, U pairs
+                Arrays.fill(mSums, 0);
+                for (int r = 0; r < mFactor; r++) {
+                    readRow(inView, inChroma + (y * mFactor + r) * mInWidth);
+                    for (int x = 0, i = 0; x < mOutWidth; x += 2) {
+                        int sumV = 0;
+                        int sumU = 0;
+                        for (int c = 0; c < mFactor; c++, i += 2) {
+                            sumV += mInRow[i] & 0xFF;
+                            sumU += mInRow[i + 1] & 0xFF;
+                        }
+                        mSums[x] += sumV;
+                        mSums[x + 1] += sumU;
+                    }
+                }
+                writeRow(outChroma + y * mOutWidth, mOutWidth, area);
+            }
+        }
+
+        private void readRow(ByteBuffer inView, int offset) {
+            inView.limit(offset + mInRow.length);
+            inView.position(offset);
+            inView.get(mInRow);
+        }
+
+        private void writeRow(int offset, int length, int area) {
+            for (int x = 0; x < length; x++) {
+                mOutRow[x] = (byte) (mSums[x] / area);
+            }
+            mOutView.position(offset);
+            mOutView.put(mOutRow, 0, length);
+        }
+    }
+
+    /**
+     * Processes one strip every time a new frame is submitted.
+     */
+    private class Worker extends Thread {
+        private final Strip mStrip;
+
+        Worker(Strip strip, int index) {
+            super("DownscalerWorker" + index);
+            mStrip = strip;
+        }
+
+        @Override
+        public void run() {
+            int seen = 0;
+
+            while (true) {
+                ByteBuffer in;
+                synchronized (mLock) {
+                    while (mGeneration == seen && !mReleased) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) return;
+                    seen = mGeneration;
+                    in = mIn;
+                }
+
+                mStrip.process(in);
+
+                synchronized (mLock) {
+                    if (--mPending == 0) mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
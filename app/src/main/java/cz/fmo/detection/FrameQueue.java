@@ -0,0 +1,74 @@
+package cz.fmo.detection;
+
+import java.util.ArrayDeque;
+
+import cz.fmo.camera.Frame;
+import cz.fmo.util.Config;
+
+/**
+ * A bounded queue of frames waiting to be processed. When a frame is offered to a full queue, one
+ * frame is dropped according to the drop policy: either the oldest queued frame, or the offered
+ * frame itself. Dropped frames are recycled immediately.
+ */
+public class FrameQueue {
+    private final ArrayDeque<Frame> mFrames;
+    private final int mCapacity;
+    private final Config.DropPolicy mPolicy;
+    private long mNumReceived = 0;
+    private long mNumDropped = 0;
+
+    /**
+     * @param capacity maximum number of frames waiting to be processed
+     * @param policy   which frame to drop when the queue is full
+     */
+    public FrameQueue(int capacity, Config.DropPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("Bad queue capacity");
+        mFrames = new ArrayDeque<>(capacity);
+        mCapacity = capacity;
+        mPolicy = policy;
+    }
+
+    /**
+     * Adds a frame to the back of the queue, possibly dropping a frame.
+     */
+    public synchronized void offer(Frame frame) {
+        mNumReceived++;
+
+        if (mFrames.size() == mCapacity) {
+            mNumDropped++;
+
+            if (mPolicy == Config.DropPolicy.DROP_NEWEST) {
+                frame.recycle();
+                return;
+            }
+
+            mFrames.pollFirst().recycle();
+        }
+
+        mFrames.addLast(frame);
+    }
+
+    /**
+     * @return the frame at the front of the queue, or null if the queue is empty
+     */
+    public synchronized Frame poll() {
+        return mFrames.pollFirst();
+    }
+
+    /**
+     * Recycles all frames waiting in the queue.
+     */
+    public synchronized void clear() {
+        while (!mFrames.isEmpty()) {
+            mFrames.pollFirst().recycle();
+        }
+    }
+
+    public synchronized long getNumReceived() {
+        return mNumReceived;
+    }
+
+    public synchronized long getNumDropped() {
+        return mNumDropped;
+    }
+}
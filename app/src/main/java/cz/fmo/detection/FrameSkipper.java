@@ -0,0 +1,75 @@
+package cz.fmo.detection;
+
+/**
+ * Lets through only every k-th frame when frames arrive faster than detection can process them.
+ * The stride k is derived from the measured interval between incoming frames and the measured
+ * detection time, both smoothed over time, so that it follows changes in scene complexity and
+ * device load.
+ * <p>
+ * The accept() method is meant to be called by the thread that submits frames; onDetection() is
+ * meant to be called by the thread that runs detection.
+ */
+class FrameSkipper {
+    private static final int MAX_STRIDE = 8;
+    private static final float SMOOTHING = 0.1f;
+    private static final float HEADROOM = 1.1f; // keep detection at most ~90% busy
+    private volatile float mFrameIntervalNs = 0;
+    private volatile int mStride = 1;
+    private float mDetectionNs = 0;
+    private long mLastFrameTime = 0;
+    private int mSinceAccepted = 0;
+    private volatile long mNumSkipped = 0;
+
+    /**
+     * Called for every incoming frame.
+     *
+     * @return whether the frame should go through detection
+     */
+    boolean accept() {
+        long now = System.nanoTime();
+        if (mLastFrameTime != 0) {
+            mFrameIntervalNs = smooth(mFrameIntervalNs, now - mLastFrameTime);
+        }
+        mLastFrameTime = now;
+
+        if (++mSinceAccepted >= mStride) {
+            mSinceAccepted = 0;
+            return true;
+        }
+
+        mNumSkipped++;
+        return false;
+    }
+
+    /**
+     * Called after a frame went through detection.
+     *
+     * @param ns time spent on detection of the frame, in nanoseconds
+     */
+    void onDetection(long ns) {
+        mDetectionNs = smooth(mDetectionNs, ns);
+        float interval = mFrameIntervalNs;
+        if (interval <= 0) return;
+        int stride = (int) Math.ceil(HEADROOM * mDetectionNs / interval);
+        mStride = Math.max(1, Math.min(MAX_STRIDE, stride));
+    }
+
+    private static float smooth(float average, float sample) {
+        if (average == 0) return sample;
+        return average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * @return the current stride: detection runs on every k-th frame
+     */
+    int getStride() {
+        return mStride;
+    }
+
+    /**
+     * @return the number of frames skipped so far
+     */
+    long getNumSkipped() {
+        return mNumSkipped;
+    }
+}
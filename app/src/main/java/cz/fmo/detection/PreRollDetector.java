@@ -0,0 +1,140 @@
+package cz.fmo.detection;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+import cz.fmo.recording.LumaRing;
+
+/**
+ * A one-shot thread that runs detection over frames kept in a LumaRing, starting at a given time
+ * and ending with the newest frame at the time of construction. It uses a detector of its own, in
+ * gray scale and at the full resolution of the ring, which is usually higher than the processing
+ * resolution of the live detector; this way it finds objects that the live detector missed. The
+ * ring is filled by the DetectionThread, so it only holds frames that reached detection.
+ * Detections are reported in the coordinates of the camera frames.
+ * <p>
+ * Frames that are overwritten before the thread gets to them are skipped and counted.
+ */
+public class PreRollDetector extends Thread implements Lib.Callback {
+    private final LumaRing mRing;
+    private final long mFirst;
+    private final long mEnd;
+    private final Lib.DetectionBatch mBatch;
+    private final Callback mCb;
+    private final ByteBuffer mFrame;
+    private volatile long mNumProcessed = 0;
+    private volatile long mNumOverwritten = 0;
+    private volatile long mNumDetections = 0;
+
+    /**
+     * @param ring      source of frames
+     * @param startTime timestamp of the first frame to process, in nanoseconds
+     * @param capacity  maximum number of detections per frame
+     * @param cb        callback to report detections to
+     */
+    public PreRollDetector(LumaRing ring, long startTime, int capacity, Callback cb) {
+        super("PreRollDetector");
+        mRing = ring;
+        mFirst = ring.findByTime(startTime);
+        mEnd = ring.end();
+        mBatch = new Lib.DetectionBatch(capacity);
+        mCb = cb;
+
+        // NV21 frame with a neutral chroma plane, into which the luma plane is copied
+        int size = ring.getWidth() * ring.getHeight();
+        mFrame = ByteBuffer.allocateDirect(size * 3 / 2);
+        for (int i = size; i < mFrame.capacity(); i++) {
+            mFrame.put(i, (byte) 128);
+        }
+    }
+
+    @Override
+    public void run() {
+        long detector = MeasuredLib.detectorCreate(mRing.getWidth(), mRing.getHeight(),
+                mRing.getHeight(), true, null, mBatch, this);
+
+        try {
+            for (long frame = mFirst; frame < mEnd; frame++) {
+                if (isInterrupted()) return;
+                long timestamp = mRing.read(frame, mFrame);
+
+                if (timestamp < 0) {
+                    mNumOverwritten++;
+                    continue;
+                }
+
+                mBatch.timestamp = timestamp;
+                MeasuredLib.detectorFrame(detector, mFrame);
+                mNumProcessed++;
+            }
+        } finally {
+            MeasuredLib.detectorDestroy(detector);
+            mCb.onPreRollFinished(this);
+        }
+    }
+
+    @Override
+    public void log(String message) {
+    }
+
+    @Override
+    public void onObjectsDetected(Lib.DetectionBatch batch) {
+        int factor = mRing.getFactor();
+        for (int i = 0; i < batch.size; i++) {
+            batch.centerX[i] *= factor;
+            batch.centerY[i] *= factor;
+            batch.length[i] *= factor;
+            batch.radius[i] *= factor;
+            batch.velocity[i] *= factor;
+        }
+        mNumDetections += batch.size;
+        mCb.onPreRollDetected(batch);
+    }
+
+    /**
+     * @return the number of frames processed so far
+     */
+    public long getNumProcessed() {
+        return mNumProcessed;
+    }
+
+    /**
+     * @return the number of frames that were overwritten before they could be processed
+     */
+    public long getNumOverwritten() {
+        return mNumOverwritten;
+    }
+
+    /**
+     * @return the number of detections reported so far
+     */
+    public long getNumDetections() {
+        return mNumDetections;
+    }
+
+    /**
+     * Stops the thread as soon as possible and waits for it to finish.
+     */
+    public void stopAndJoin() {
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted when closing PreRollDetector");
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called from the detector thread after each frame that contains detections. The batch is
+         * reused, so its contents must be consumed before returning.
+         */
+        void onPreRollDetected(Lib.DetectionBatch batch);
+
+        /**
+         * Called from the detector thread when it is done, even when it has been interrupted.
+         */
+        void onPreRollFinished(PreRollDetector detector);
+    }
+}
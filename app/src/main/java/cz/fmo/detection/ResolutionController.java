@@ -0,0 +1,107 @@
+package cz.fmo.detection;
+
+/**
+ * Closed-loop controller of the processing resolution. The time spent on detection is measured in
+ * every frame; once per evaluation window, the mean time is compared with the frame budget and the
+ * processing resolution is moved one step down or up the ladder.
+ * <p>
+ * To avoid oscillation, the resolution is only raised if the cost predicted for the next step
+ * (assuming that cost is proportional to the number of pixels) stays well within the budget, and
+ * no change is made for a few windows after the previous one.
+ */
+class ResolutionController {
+    private static final int[] LADDER = {120, 150, 200, 250, 300, 400, 500, 600};
+    private static final int WINDOW_FRAMES = 30;
+    private static final int COOLDOWN_WINDOWS = 2;
+    private static final float RAISE_MARGIN = 0.8f; // raise only if predicted cost < 80% of budget
+    private final long mBudgetNs;
+    private volatile int mLevel;
+    private int mWindowFrames = 0;
+    private long mWindowNs = 0;
+    private int mCooldown = 0;
+    private volatile long mMeanNs = 0;
+    private volatile long mNumFrames = 0;
+    private volatile long mNumBudgetMisses = 0;
+
+    /**
+     * @param initialProcRes processing resolution to start with
+     * @param budgetMs       target detection time per frame in milliseconds
+     */
+    ResolutionController(int initialProcRes, float budgetMs) {
+        mBudgetNs = (long) (budgetMs * 1e6f);
+        mLevel = closestLevel(initialProcRes);
+    }
+
+    private static int closestLevel(int procRes) {
+        int best = 0;
+        for (int i = 1; i < LADDER.length; i++) {
+            if (Math.abs(LADDER[i] - procRes) < Math.abs(LADDER[best] - procRes)) best = i;
+        }
+        return best;
+    }
+
+    /**
+     * Records the time spent on detection of a single frame.
+     *
+     * @param ns detection time in nanoseconds
+     * @return whether the processing resolution has changed and the detector must be reconfigured
+     */
+    boolean onFrame(long ns) {
+        mNumFrames++;
+        if (ns > mBudgetNs) mNumBudgetMisses++;
+        mWindowNs += ns;
+        if (++mWindowFrames < WINDOW_FRAMES) return false;
+
+        long mean = mWindowNs / mWindowFrames;
+        mMeanNs = mean;
+        mWindowNs = 0;
+        mWindowFrames = 0;
+
+        if (mCooldown > 0) {
+            mCooldown--;
+            return false;
+        }
+
+        int level = mLevel;
+        if (mean > mBudgetNs) {
+            if (level > 0) level--;
+        } else if (level + 1 < LADDER.length) {
+            float ratio = (float) LADDER[level + 1] / LADDER[level];
+            float predicted = mean * ratio * ratio;
+            if (predicted < RAISE_MARGIN * mBudgetNs) level++;
+        }
+
+        if (level == mLevel) return false;
+        mLevel = level;
+        mCooldown = COOLDOWN_WINDOWS;
+        return true;
+    }
+
+    /**
+     * @return the processing resolution that the detector should currently use
+     */
+    int getProcRes() {
+        return LADDER[mLevel];
+    }
+
+    /**
+     * @return mean detection time per frame over the last evaluation window, in nanoseconds
+     */
+    long getMeanNs() {
+        return mMeanNs;
+    }
+
+    /**
+     * @return the number of frames measured so far
+     */
+    long getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return the number of frames whose detection took longer than the budget
+     */
+    long getNumBudgetMisses() {
+        return mNumBudgetMisses;
+    }
+}
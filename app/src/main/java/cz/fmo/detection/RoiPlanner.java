@@ -0,0 +1,109 @@
+package cz.fmo.detection;
+
+import cz.fmo.data.TrackSet;
+
+/**
+ * Decides which parts of the next frame are worth running detection on. While there are live
+ * tracks, only the regions around their predicted positions are processed; every SWEEP_INTERVAL
+ * frames, and whenever there is nothing to follow, the whole frame is processed so that new
+ * objects are still found.
+ */
+class RoiPlanner {
+    static final int MAX_REGIONS = 8;
+    private static final int SWEEP_INTERVAL = 10;
+    private static final long MAX_TRACK_AGE_NS = 200 * 1000 * 1000; // 200 ms
+    private static final int MIN_EXTENT = 16; // minimum half-size of a region in pixels
+    private final int mWidth;
+    private final int mHeight;
+    private final float[] mPredictions = new float[4 * MAX_REGIONS];
+    private int mSinceSweep = 0;
+    private volatile long mNumPixels = 0;
+    private volatile long mNumFrames = 0;
+
+    /**
+     * @param width  width of the source image
+     * @param height height of the source image
+     */
+    RoiPlanner(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Plans the regions of interest for the next frame.
+     *
+     * @param rects array to be filled with four values per region: x, y, width, height; must hold
+     *              at least 4 * MAX_REGIONS values
+     * @return the number of regions, or 0 if the whole frame is to be processed
+     */
+    int plan(int[] rects) {
+        mNumFrames++;
+        int count = 0;
+
+        if (++mSinceSweep < SWEEP_INTERVAL) {
+            int n = TrackSet.getInstance().predictRegions(mPredictions, MAX_TRACK_AGE_NS);
+            for (int i = 0; i < n; i++) {
+                count = addRegion(rects, count, mPredictions, 4 * i);
+            }
+        }
+
+        if (count == 0) {
+            mSinceSweep = 0;
+            mNumPixels += (long) mWidth * mHeight;
+            return 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            mNumPixels += (long) rects[4 * i + 2] * rects[4 * i + 3];
+        }
+        return count;
+    }
+
+    /**
+     * Converts a prediction to a rectangle clamped to the image. Planned rectangles that overlap
+     * it are merged into it and removed, repeatedly, since the grown rectangle may reach further
+     * ones; this way, no two planned rectangles overlap, and no pixel is processed twice.
+     *
+     * @return the new number of regions
+     */
+    private int addRegion(int[] rects, int count, float[] p, int o) {
+        float halfW = Math.max(MIN_EXTENT, p[o + 2]);
+        float halfH = Math.max(MIN_EXTENT, p[o + 3]);
+        int x0 = Math.max(0, (int) (p[o] - halfW));
+        int y0 = Math.max(0, (int) (p[o + 1] - halfH));
+        int x1 = Math.min(mWidth, (int) Math.ceil(p[o] + halfW));
+        int y1 = Math.min(mHeight, (int) Math.ceil(p[o + 1] + halfH));
+        if (x0 >= x1 || y0 >= y1) return count;
+
+        for (int i = 0; i < count; i++) {
+            int r = 4 * i;
+            int rx1 = rects[r] + rects[r + 2];
+            int ry1 = rects[r + 1] + rects[r + 3];
+            if (x0 < rx1 && rects[r] < x1 && y0 < ry1 && rects[r + 1] < y1) {
+                x0 = Math.min(x0, rects[r]);
+                y0 = Math.min(y0, rects[r + 1]);
+                x1 = Math.max(x1, rx1);
+                y1 = Math.max(y1, ry1);
+
+                // remove the merged rectangle and check the remaining ones again
+                count--;
+                System.arraycopy(rects, 4 * count, rects, r, 4);
+                i = -1;
+            }
+        }
+
+        int r = 4 * count;
+        rects[r] = x0;
+        rects[r + 1] = y0;
+        rects[r + 2] = x1 - x0;
+        rects[r + 3] = y1 - y0;
+        return count + 1;
+    }
+
+    /**
+     * @return mean number of pixels submitted for detection per frame
+     */
+    long getMeanPixels() {
+        return (mNumFrames == 0) ? 0 : mNumPixels / mNumFrames;
+    }
+}
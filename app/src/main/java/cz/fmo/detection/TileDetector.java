@@ -0,0 +1,296 @@
+package cz.fmo.detection;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+
+/**
+ * Runs detection on several cores at once by splitting each frame into a grid of overlapping
+ * tiles. Every tile has a detector of its own, which sees the whole frame but processes only the
+ * tile, using Lib.detectorFrameRoi(); the data is read in place, so frames are not copied. The
+ * calling thread processes the first tile, persistent worker threads process the rest.
+ * <p>
+ * Once all tiles are done, their detections are merged into a single batch. An object that lies in
+ * the overlap of two tiles is found by both of their detectors; of two detections from different
+ * tiles whose disks intersect, only the longer one is kept. Detection identifiers are made unique
+ * across tiles, but tracks are not linked when an object crosses from one tile into another.
+ */
+public class TileDetector {
+    private final Tile[] mTiles;
+    private final Lib.DetectionBatch mBatch;
+    private final Lib.Callback mCb;
+    private final boolean[] mRemoved;
+    private final Object mLock = new Object();
+    private ByteBuffer mIn = null;
+    private int mGeneration = 0;
+    private int mPending = 0;
+    private boolean mReleased = false;
+    private long mNumSeamDuplicates = 0;
+
+    /**
+     * @param width      width of the input frames
+     * @param height     height of the input frames
+     * @param procRes    processing resolution, see Lib.detectorCreate()
+     * @param gray       do the processing in gray scale
+     * @param mask       detection zone mask shared by all tiles, or null
+     * @param numThreads number of tiles and threads, including the calling thread
+     * @param batch      batch to be filled with the merged detections
+     * @param cb         callback to report the merged detections and log messages to
+     */
+    public TileDetector(int width, int height, int procRes, boolean gray, ByteBuffer mask,
+                        int numThreads, Lib.DetectionBatch batch, Lib.Callback cb) {
+        mBatch = batch;
+        mCb = cb;
+
+        int rows = gridRows(width, height, numThreads);
+        int cols = numThreads / rows;
+        int overlap = (height / 10) & ~1;
+        mTiles = new Tile[numThreads];
+        mRemoved = new boolean[numThreads * batch.capacity];
+
+        for (int r = 0, i = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++, i++) {
+                int x0 = Math.max(0, ((c * width / cols) & ~1) - overlap);
+                int y0 = Math.max(0, ((r * height / rows) & ~1) - overlap);
+                int x1 = Math.min(width, (((c + 1) * width / cols + 1) & ~1) + overlap);
+                int y1 = Math.min(height, (((r + 1) * height / rows + 1) & ~1) + overlap);
+                mTiles[i] = new Tile(i, x0, y0, x1 - x0, y1 - y0, batch.capacity);
+                mTiles[i].mDetector = MeasuredLib.detectorCreate(width, height, procRes, gray, mask,
+                        mTiles[i].mDetections, mTiles[i]);
+            }
+        }
+
+        for (int i = 1; i < numThreads; i++) {
+            Thread worker = new Worker(mTiles[i]);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the number of tile rows that makes the tiles closest to square; the number of
+     * columns is numTiles / rows
+     */
+    static int gridRows(int width, int height, int numTiles) {
+        int best = 1;
+        double bestScore = Double.MAX_VALUE;
+
+        for (int rows = 1; rows <= numTiles; rows++) {
+            if (numTiles % rows != 0) continue;
+            int cols = numTiles / rows;
+            double score = Math.abs(Math.log(((double) width / cols) / ((double) height / rows)));
+            if (score < bestScore) {
+                bestScore = score;
+                best = rows;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Runs detection on a frame. Blocks until all tiles are done, then reports the merged
+     * detections, if there are any.
+     *
+     * @param dataYUV420SP direct buffer containing NV21 image data of the whole frame
+     * @param timestamp    frame time in nanoseconds
+     */
+    public void process(ByteBuffer dataYUV420SP, long timestamp) {
+        synchronized (mLock) {
+            if (mReleased) throw new RuntimeException("Process after release");
+            mIn = dataYUV420SP;
+            mPending = mTiles.length - 1;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+
+        mTiles[0].process(dataYUV420SP);
+
+        // the workers are still using their detectors, so an interrupt must not cut this short
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mIn = null;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        merge();
+        if (mBatch.size == 0) return;
+        mBatch.timestamp = timestamp;
+        mCb.onObjectsDetected(mBatch);
+    }
+
+    /**
+     * Copies the detections of all tiles into the output batch, leaving out seam duplicates.
+     */
+    private void merge() {
+        int capacity = mBatch.capacity;
+
+        for (int a = 0; a < mTiles.length; a++) {
+            for (int i = 0; i < mTiles[a].mSize; i++) {
+                mRemoved[a * capacity + i] = false;
+            }
+        }
+
+        for (int a = 0; a < mTiles.length; a++) {
+            Lib.DetectionBatch ba = mTiles[a].mDetections;
+            for (int b = a + 1; b < mTiles.length; b++) {
+                Lib.DetectionBatch bb = mTiles[b].mDetections;
+                for (int i = 0; i < mTiles[a].mSize; i++) {
+                    for (int j = 0; j < mTiles[b].mSize; j++) {
+                        if (!intersect(ba, i, bb, j)) continue;
+                        if (ba.length[i] >= bb.length[j]) {
+                            mRemoved[b * capacity + j] = true;
+                        } else {
+                            mRemoved[a * capacity + i] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        int size = 0;
+        for (int a = 0; a < mTiles.length; a++) {
+            Lib.DetectionBatch ba = mTiles[a].mDetections;
+            for (int i = 0; i < mTiles[a].mSize; i++) {
+                if (mRemoved[a * capacity + i]) {
+                    mNumSeamDuplicates++;
+                    continue;
+                }
+                if (size == capacity) continue;
+                copy(ba, i, a, size++);
+            }
+        }
+        mBatch.size = size;
+    }
+
+    private static boolean intersect(Lib.DetectionBatch ba, int i, Lib.DetectionBatch bb, int j) {
+        float dx = ba.centerX[i] - bb.centerX[j];
+        float dy = ba.centerY[i] - bb.centerY[j];
+        float r = ba.radius[i] + bb.radius[j];
+        return dx * dx + dy * dy <= r * r;
+    }
+
+    /**
+     * Copies a detection into the output batch, making its identifiers unique across tiles.
+     */
+    private void copy(Lib.DetectionBatch in, int i, int tile, int o) {
+        int numTiles = mTiles.length;
+        mBatch.id[o] = in.id[i] * numTiles + tile;
+        mBatch.predecessorId[o] = in.predecessorId[i] * numTiles + tile;
+        mBatch.centerX[o] = in.centerX[i];
+        mBatch.centerY[o] = in.centerY[i];
+        mBatch.directionX[o] = in.directionX[i];
+        mBatch.directionY[o] = in.directionY[i];
+        mBatch.length[o] = in.length[i];
+        mBatch.radius[o] = in.radius[i];
+        mBatch.velocity[o] = in.velocity[i];
+    }
+
+    /**
+     * Stops the worker threads and releases the detectors. Must be called from the thread that
+     * calls process().
+     */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+
+        for (Tile tile : mTiles) {
+            MeasuredLib.detectorDestroy(tile.mDetector);
+        }
+    }
+
+    /**
+     * @return the number of tiles, which is also the number of threads
+     */
+    public int getNumTiles() {
+        return mTiles.length;
+    }
+
+    /**
+     * @return the number of detections removed so far because another tile found the same object
+     */
+    public long getNumSeamDuplicates() {
+        return mNumSeamDuplicates;
+    }
+
+    /**
+     * A region of the frame with a detector of its own.
+     */
+    private class Tile implements Lib.Callback {
+        private final int mIndex;
+        private final int[] mRect;
+        private final Lib.DetectionBatch mDetections;
+        private long mDetector;
+        private int mSize = 0;
+
+        Tile(int index, int x, int y, int width, int height, int capacity) {
+            mIndex = index;
+            mRect = new int[]{x, y, width, height};
+            mDetections = new Lib.DetectionBatch(capacity);
+        }
+
+        void process(ByteBuffer in) {
+            mSize = 0;
+            MeasuredLib.detectorFrameRoi(mDetector, in, mRect, 1);
+        }
+
+        @Override
+        public void log(String message) {
+            mCb.log(message);
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+            mSize = batch.size;
+        }
+    }
+
+    /**
+     * Processes one tile every time a new frame is submitted.
+     */
+    private class Worker extends Thread {
+        private final Tile mTile;
+
+        Worker(Tile tile) {
+            super("TileWorker" + tile.mIndex);
+            mTile = tile;
+        }
+
+        @Override
+        public void run() {
+            int seen = 0;
+
+            while (true) {
+                ByteBuffer in;
+                synchronized (mLock) {
+                    while (mGeneration == seen && !mReleased) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) return;
+                    seen = mGeneration;
+                    in = mIn;
+                }
+
+                mTile.process(in);
+
+                synchronized (mLock) {
+                    if (--mPending == 0) mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cz.fmo.detection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rasterizes detection zones into a mask that is handed to the detector once per session. The mask
+ * has one byte per input image pixel: 1 inside any of the zones, 0 elsewhere.
+ */
+final class ZoneMask {
+    private ZoneMask() {
+    }
+
+    /**
+     * @param zones  polygons with coordinates in the range 0 to 1, as produced by
+     *               DetectionZones.parse()
+     * @param width  input image width
+     * @param height input image height
+     * @return a direct buffer with the mask, or null if there are no zones
+     */
+    static ByteBuffer rasterize(float[][] zones, int width, int height) {
+        if (zones.length == 0) return null;
+        ByteBuffer mask = ByteBuffer.allocateDirect(width * height);
+        int maxVertices = 0;
+        for (float[] zone : zones) maxVertices = Math.max(maxVertices, zone.length / 2);
+        float[] crossings = new float[maxVertices];
+
+        for (float[] zone : zones) {
+            fillPolygon(mask, width, height, zone, crossings);
+        }
+
+        mask.clear();
+        return mask;
+    }
+
+    /**
+     * Even-odd scanline fill of a single polygon, evaluated at pixel centers.
+     */
+    private static void fillPolygon(ByteBuffer mask, int width, int height, float[] zone,
+                                    float[] crossings) {
+        int n = zone.length / 2;
+
+        for (int y = 0; y < height; y++) {
+            float py = (y + 0.5f) / height;
+            int count = 0;
+
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                float yi = zone[2 * i + 1];
+                float yj = zone[2 * j + 1];
+                if ((yi > py) == (yj > py)) continue;
+                float xi = zone[2 * i];
+                float xj = zone[2 * j];
+                float x = xi + (py - yi) * (xj - xi) / (yj - yi);
+
+                // insertion sort, polygons are small
+                int k = count++;
+                while (k > 0 && crossings[k - 1] > x) {
+                    crossings[k] = crossings[k - 1];
+                    k--;
+                }
+                crossings[k] = x;
+            }
+
+            int row = y * width;
+            for (int k = 0; k + 1 < count; k += 2) {
+                int x0 = Math.max(0, (int) Math.ceil(crossings[k] * width - 0.5f));
+                int x1 = Math.min(width, (int) Math.ceil(crossings[k + 1] * width - 0.5f));
+                for (int x = x0; x < x1; x++) {
+                    mask.put(row + x, (byte) 1);
+                }
+            }
+        }
+    }
+}
@@ -54,6 +54,7 @@ public class CameraFrameRenderer {
     private final SurfaceTexture mInputTex;
     private final float[] mTemp = new float[16];
     private boolean mReleased = false;
+    private long mTimestamp = 0;
 
     public CameraFrameRenderer() throws RuntimeException {
         mProgramId = GLES20.glCreateProgram();
@@ -113,12 +114,21 @@ public class CameraFrameRenderer {
         return mInputTex;
     }
 
+    /**
+     * @return timestamp of the frame drawn last, as reported by the input surface texture, in
+     * nanoseconds
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
     /**
      * Draw the whole input surface texture onto the current output surface.
      */
     public void drawCameraFrame() {
         if (mReleased) throw new RuntimeException("Draw after release");
         mInputTex.updateTexImage();
+        mTimestamp = mInputTex.getTimestamp();
         mInputTex.getTransformMatrix(mTemp);
         GLES20.glUseProgram(mProgramId);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
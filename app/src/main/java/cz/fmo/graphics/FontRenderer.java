@@ -7,7 +7,7 @@ import android.opengl.GLUtils;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
-import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
 import cz.fmo.data.Assets;
 import cz.fmo.util.Color;
 
@@ -120,11 +120,11 @@ public class FontRenderer {
      * @param color text color, alpha channel will be ignored
      */
     public void addString(String str, float x, float y, float h, Color.RGBA color) {
-        Lib.generateString(str, x, y, h, color.rgba, mBuffers);
+        MeasuredLib.generateString(str, x, y, h, color.rgba, mBuffers);
     }
 
     public void addRectangle(float x, float y, float w, float h, Color.RGBA color) {
-        Lib.generateRectangle(x, y, w, h, color.rgba, mBuffers);
+        MeasuredLib.generateRectangle(x, y, w, h, color.rgba, mBuffers);
     }
 
     /**
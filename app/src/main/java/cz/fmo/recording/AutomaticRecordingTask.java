@@ -30,11 +30,18 @@ public class AutomaticRecordingTask implements SaveThread.Task {
      * the end of the video. Once the end of the video is saved, the recording is stopped
      * automatically.
      *
-     * @param marginSec number of seconds to include before the first event and after the last one
-     * @param file      file to save to, should be writable and have a .mp4 extension
-     * @param thread    thread to use for saving
+     * Encoded frames carry their capture times, so the margins are measured from the frame that
+     * contains the event, rather than from the latest encoded frame.
+     *
+     * @param marginSec   number of seconds to include before the first event and after the last
+     *                    one
+     * @param eventTimeUs capture time of the frame that contains the first event, in
+     *                    microseconds, or 0 if unknown
+     * @param file        file to save to, should be writable and have a .mp4 extension
+     * @param thread      thread to use for saving
      */
-    public AutomaticRecordingTask(float marginSec, File file, SaveThread thread) {
+    public AutomaticRecordingTask(float marginSec, long eventTimeUs, File file,
+                                  SaveThread thread) {
         mFile = file;
         mMarginUs = Time.toUs(marginSec);
         mThread = thread;
@@ -46,7 +53,7 @@ public class AutomaticRecordingTask implements SaveThread.Task {
             return;
         }
 
-        if (!init()) {
+        if (!init(eventTimeUs)) {
             error();
             return;
         }
@@ -63,12 +70,19 @@ public class AutomaticRecordingTask implements SaveThread.Task {
         return b.getTimeUs(b.prev(b.end()));
     }
 
-    private boolean init() {
+    /**
+     * @return the event time, or the time of the latest encoded frame if the event time is unknown
+     */
+    private long eventUs(CyclicBuffer b, long eventTimeUs) {
+        return (eventTimeUs > 0) ? eventTimeUs : latestUs(b);
+    }
+
+    private boolean init(long eventTimeUs) {
         synchronized (mBuf) {
             if (mBuf.empty()) return false;
-            long nowUs = latestUs(mBuf);
-            long startUs = nowUs - mMarginUs;
-            mEndUs = nowUs + mMarginUs;
+            long eventUs = eventUs(mBuf, eventTimeUs);
+            long startUs = eventUs - mMarginUs;
+            mEndUs = eventUs + mMarginUs;
             mFirst = mBuf.findByTime(mBuf.begin(), mBuf.end(), startUs);
             mFirst = mBuf.findIFrame(mFirst);
             if (!mBuf.isIFrame(mFirst)) return false;
@@ -145,10 +159,10 @@ public class AutomaticRecordingTask implements SaveThread.Task {
     }
 
     @Override
-    public boolean extend() {
+    public boolean extend(long eventTimeUs) {
         synchronized (mLock) {
             if (mFinished) return false;
-            if (!extendImpl()) {
+            if (!extendImpl(eventTimeUs)) {
                 error();
                 return false;
             }
@@ -156,11 +170,10 @@ public class AutomaticRecordingTask implements SaveThread.Task {
         return true;
     }
 
-    private boolean extendImpl() {
+    private boolean extendImpl(long eventTimeUs) {
          synchronized (mBuf) {
             if (mBuf.empty()) return false;
-            long nowUs = latestUs(mBuf);
-            mEndUs = nowUs + mMarginUs;
+            mEndUs = Math.max(mEndUs, eventUs(mBuf, eventTimeUs) + mMarginUs);
         }
         return true;
     }
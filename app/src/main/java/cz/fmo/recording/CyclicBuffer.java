@@ -97,25 +97,38 @@ public class CyclicBuffer {
     }
 
     /**
-     * Binary search for the frame that has a timestamp close to the specified one. It is assumed
-     * that the timestamps in the range are strictly increasing, with a fixed frame rate.
+     * Binary search for the frame that has the timestamp closest to the specified one. It is
+     * assumed that the timestamps in the range are strictly increasing; the intervals between them
+     * may vary. Frames are stamped with their capture time, so a frame whose timestamp equals the
+     * specified one is found exactly.
      *
      * @param first start of range, index of the first frame
      * @param last  end of range, index of the frame after the last frame (past-the-end index)
      * @param time  time to search for, in microseconds
-     * @return a frame in the specified range that is the first or second closest in time to the
-     * specified timestamp
+     * @return the frame in the specified range that is closest in time to the specified timestamp;
+     * of two equally close frames, the earlier one
      */
     int findByTime(int first, int last, long time) {
         if (first == last) throw new RuntimeException("findByTime called on an empty range");
-        int mid = midpoint(first, last);
-        if (mid == first) return first;
+        int end = last;
 
-        if (time < mMeta[mid].presentationTimeUs) {
-            return findByTime(first, mid, time);
-        } else {
-            return findByTime(mid, last, time);
+        // find the last frame not later than the specified time, or the first frame
+        while (true) {
+            int mid = midpoint(first, last);
+            if (mid == first) break;
+
+            if (time < mMeta[mid].presentationTimeUs) {
+                last = mid;
+            } else {
+                first = mid;
+            }
         }
+
+        int next = next(first);
+        if (next == end || time <= mMeta[first].presentationTimeUs) return first;
+        long dFirst = time - mMeta[first].presentationTimeUs;
+        long dNext = mMeta[next].presentationTimeUs - time;
+        return (dNext < dFirst) ? next : first;
     }
 
     /**
@@ -0,0 +1,78 @@
+package cz.fmo.recording;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import cz.fmo.Lib;
+
+/**
+ * Binary format of the detection log. The file starts with a header (FILE_MAGIC, VERSION), followed
+ * by one record per frame with detections. Each record is framed as follows:
+ * <pre>
+ *   int   RECORD_MAGIC
+ *   int   payload length in bytes
+ *   ...   payload: long timestamp, int source, int count, count * DETECTION_SIZE bytes of
+ *         detections
+ *   int   CRC-32 of the payload
+ * </pre>
+ * The source is SOURCE_LIVE for the live detector and SOURCE_PRE_ROLL for the re-detection of the
+ * frames preceding an automatic recording. The two detectors assign their ids independently, so
+ * ids are only comparable between records of the same source.
+ * <p>
+ * Detections are stored field by field, in the order of the fields of Lib.Detection. All values
+ * are little-endian. A record that is cut short or damaged (e.g. after a crash) fails the framing
+ * checks, and reading stops there.
+ */
+final class DetectionLog {
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int FILE_MAGIC = 0x444F4D46; // "FMOD"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_MAGIC = 0x52544544; // "DETR"
+    static final int DETECTION_SIZE = 9 * 4;
+    static final int PAYLOAD_HEADER_SIZE = 8 + 4 + 4;
+    static final int COUNT_OFFSET = 8 + 8 + 4;
+    static final int SOURCE_LIVE = 0;
+    static final int SOURCE_PRE_ROLL = 1;
+    static final int FRAMING_SIZE = 3 * 4;
+
+    private DetectionLog() {
+    }
+
+    /**
+     * @return size of the whole record (including framing) for the given number of detections
+     */
+    static int recordSize(int count) {
+        return FRAMING_SIZE + PAYLOAD_HEADER_SIZE + count * DETECTION_SIZE;
+    }
+
+    /**
+     * Appends a record to a heap buffer, which must have enough space remaining.
+     */
+    static void encode(Lib.DetectionBatch batch, int source, ByteBuffer out, CRC32 crc) {
+        int start = out.position();
+        int payloadLength = PAYLOAD_HEADER_SIZE + batch.size * DETECTION_SIZE;
+        out.putInt(RECORD_MAGIC);
+        out.putInt(payloadLength);
+        out.putLong(batch.timestamp);
+        out.putInt(source);
+        out.putInt(batch.size);
+
+        for (int i = 0; i < batch.size; i++) {
+            out.putInt(batch.id[i]);
+            out.putInt(batch.predecessorId[i]);
+            out.putInt(batch.centerX[i]);
+            out.putInt(batch.centerY[i]);
+            out.putFloat(batch.directionX[i]);
+            out.putFloat(batch.directionY[i]);
+            out.putFloat(batch.length[i]);
+            out.putFloat(batch.radius[i]);
+            out.putFloat(batch.velocity[i]);
+        }
+
+        crc.reset();
+        crc.update(out.array(), out.arrayOffset() + start + 8, payloadLength);
+        out.putInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,123 @@
+package cz.fmo.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import cz.fmo.Lib;
+
+/**
+ * Reads a log written by DetectionLogThread, one record (frame) at a time. Reading stops at the
+ * end of the file, or at the first record that is incomplete or damaged; use isTruncated() to tell
+ * these two cases apart.
+ */
+public class DetectionLogReader {
+    private final MappedByteBuffer mMap;
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mPayload = new byte[0];
+    private boolean mTruncated = false;
+    private boolean mPreRoll = false;
+
+    /**
+     * @throws IOException if the file cannot be read or is not a detection log
+     */
+    public DetectionLogReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            mMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        mMap.order(DetectionLog.ORDER);
+
+        if (mMap.remaining() < DetectionLog.HEADER_SIZE ||
+                mMap.getInt() != DetectionLog.FILE_MAGIC ||
+                mMap.getInt() != DetectionLog.VERSION) {
+            throw new IOException("Not a detection log");
+        }
+    }
+
+    /**
+     * Reads the next record into a batch.
+     *
+     * @param out batch to fill; the timestamp and size fields are set as well
+     * @return false if there are no more valid records
+     */
+    public boolean next(Lib.DetectionBatch out) {
+        if (mTruncated || !mMap.hasRemaining()) return false;
+        int start = mMap.position();
+
+        if (!checkRecord(start)) {
+            mTruncated = true;
+            return false;
+        }
+
+        int count = mMap.getInt(start + DetectionLog.COUNT_OFFSET);
+        if (count > out.capacity) throw new RuntimeException("Batch too small");
+        mMap.position(start + 8);
+        out.timestamp = mMap.getLong();
+        mPreRoll = mMap.getInt() == DetectionLog.SOURCE_PRE_ROLL;
+        mMap.getInt();
+        out.size = count;
+
+        for (int i = 0; i < count; i++) {
+            out.id[i] = mMap.getInt();
+            out.predecessorId[i] = mMap.getInt();
+            out.centerX[i] = mMap.getInt();
+            out.centerY[i] = mMap.getInt();
+            out.directionX[i] = mMap.getFloat();
+            out.directionY[i] = mMap.getFloat();
+            out.length[i] = mMap.getFloat();
+            out.radius[i] = mMap.getFloat();
+            out.velocity[i] = mMap.getFloat();
+        }
+
+        mMap.getInt(); // checksum
+        return true;
+    }
+
+    /**
+     * Verifies the framing and the checksum of the record at the given position.
+     */
+    private boolean checkRecord(int start) {
+        int available = mMap.limit() - start;
+        if (available < DetectionLog.recordSize(0)) return false;
+        if (mMap.getInt(start) != DetectionLog.RECORD_MAGIC) return false;
+
+        int payloadLength = mMap.getInt(start + 4);
+        if (payloadLength < DetectionLog.PAYLOAD_HEADER_SIZE) return false;
+        if (payloadLength > available - DetectionLog.FRAMING_SIZE) return false;
+        int count = mMap.getInt(start + DetectionLog.COUNT_OFFSET);
+        int expected = DetectionLog.PAYLOAD_HEADER_SIZE + count * DetectionLog.DETECTION_SIZE;
+        if (payloadLength != expected) return false;
+
+        if (mPayload.length < payloadLength) mPayload = new byte[payloadLength];
+        ByteBuffer payload = mMap.duplicate();
+        payload.position(start + 8);
+        payload.get(mPayload, 0, payloadLength);
+        mCrc.reset();
+        mCrc.update(mPayload, 0, payloadLength);
+        return mMap.getInt(start + 8 + payloadLength) == (int) mCrc.getValue();
+    }
+
+    /**
+     * @return true if the record read last comes from the pre-roll re-detection rather than from
+     * the live detector; the ids of its detections are unrelated to the ids of the live ones
+     */
+    public boolean isPreRoll() {
+        return mPreRoll;
+    }
+
+    /**
+     * @return true if reading stopped at a damaged or incomplete record, rather than at the end of
+     * the file
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+}
@@ -0,0 +1,164 @@
+package cz.fmo.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import cz.fmo.Lib;
+import cz.fmo.util.GenericThread;
+
+/**
+ * A separate thread that writes detections into an append-only binary log (see DetectionLog for
+ * the format), so that detector output can be analyzed offline.
+ * <p>
+ * The append() method encodes a batch into a staging buffer and returns straight away; it is cheap
+ * enough to be called on the detection thread. This thread then copies the staged records into a
+ * memory-mapped file, which grows in chunks of MAP_CHUNK bytes. If the staging buffer is full, the
+ * batch is dropped and counted. When the thread finishes, the file is truncated to its actual size;
+ * if it doesn't finish at all, the reader stops at the unwritten zeros.
+ */
+public class DetectionLogThread extends GenericThread<DetectionLogThreadHandler> {
+    private static final int MAP_CHUNK = 1024 * 1024;
+    private final Object mLock = new Object();
+    private final CRC32 mCrc = new CRC32();
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private ByteBuffer mFront;
+    private ByteBuffer mBack;
+    private MappedByteBuffer mMap = null;
+    private long mMapStart = 0;
+    private volatile long mNumRecords = 0;
+    private volatile long mNumDropped = 0;
+    private volatile long mSize = 0;
+
+    /**
+     * @param file        file to write to; existing contents are replaced
+     * @param stagingSize size of the staging buffer in bytes
+     */
+    public DetectionLogThread(File file, int stagingSize) {
+        super("DetectionLogThread");
+        mFront = ByteBuffer.allocate(stagingSize).order(DetectionLog.ORDER);
+        mBack = ByteBuffer.allocate(stagingSize).order(DetectionLog.ORDER);
+
+        try {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open detection log");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(DetectionLog.HEADER_SIZE).order(DetectionLog.ORDER);
+        header.putInt(DetectionLog.FILE_MAGIC);
+        header.putInt(DetectionLog.VERSION);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Stages a batch of detections from the live detector to be written. May be called from any
+     * thread; once the thread is no longer running, batches are dropped.
+     */
+    public void append(Lib.DetectionBatch batch) {
+        append(batch, DetectionLog.SOURCE_LIVE);
+    }
+
+    /**
+     * Stages a batch of detections from the pre-roll re-detection to be written, tagged so that
+     * it can be told apart from the live detections. May be called from any thread.
+     */
+    public void appendPreRoll(Lib.DetectionBatch batch) {
+        append(batch, DetectionLog.SOURCE_PRE_ROLL);
+    }
+
+    private void append(Lib.DetectionBatch batch, int source) {
+        DetectionLogThreadHandler handler = getHandlerIfRunning();
+        if (handler == null) return;
+
+        synchronized (mLock) {
+            if (mFront.remaining() < DetectionLog.recordSize(batch.size)) {
+                mNumDropped++;
+                return;
+            }
+            DetectionLog.encode(batch, source, mFront, mCrc);
+            mNumRecords++;
+        }
+        handler.sendFlush();
+    }
+
+    /**
+     * Writes all staged records into the file.
+     */
+    void flush() {
+        synchronized (mLock) {
+            ByteBuffer temp = mFront;
+            mFront = mBack;
+            mBack = temp;
+        }
+
+        mBack.flip();
+        write(mBack);
+        mBack.clear();
+    }
+
+    /**
+     * Copies data into the mapped region, mapping the next chunk of the file if necessary.
+     */
+    private void write(ByteBuffer data) {
+        try {
+            if (mMap == null || mMap.remaining() < data.remaining()) {
+                mMapStart = mSize;
+                long length = Math.max(MAP_CHUNK, data.remaining());
+                mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, mMapStart, length);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot map detection log");
+        }
+
+        mSize += data.remaining();
+        mMap.put(data);
+    }
+
+    @Override
+    protected DetectionLogThreadHandler makeHandler() {
+        return new DetectionLogThreadHandler(this);
+    }
+
+    @Override
+    protected void teardown() {
+        flush();
+
+        try {
+            mMap.force();
+            mChannel.truncate(mSize);
+            mFile.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close detection log");
+        }
+    }
+
+    /**
+     * @return the number of records (frames with detections) accepted so far
+     */
+    public long getNumRecords() {
+        return mNumRecords;
+    }
+
+    /**
+     * @return the number of records dropped so far because the staging buffer was full
+     */
+    public long getNumDropped() {
+        return mNumDropped;
+    }
+
+    /**
+     * @return the size of the log in bytes, as written so far
+     */
+    public long getSize() {
+        return mSize;
+    }
+}
@@ -0,0 +1,46 @@
+package cz.fmo.recording;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Message handler for DetectionLogThread.
+ */
+public class DetectionLogThreadHandler extends android.os.Handler {
+    private static final int KILL = 1;
+    private static final int FLUSH = 2;
+    private final WeakReference<DetectionLogThread> mThreadRef;
+
+    DetectionLogThreadHandler(DetectionLogThread thread) {
+        mThreadRef = new WeakReference<>(thread);
+    }
+
+    /**
+     * Send a command to end the execution of the thread as soon as possible.
+     */
+    public void sendKill() {
+        if (hasMessages(KILL)) return;
+        sendMessage(obtainMessage(KILL));
+    }
+
+    /**
+     * Send a notification that there are records waiting to be written.
+     */
+    void sendFlush() {
+        if (hasMessages(FLUSH)) return;
+        sendMessage(obtainMessage(FLUSH));
+    }
+
+    @Override
+    public void handleMessage(android.os.Message msg) {
+        DetectionLogThread thread = mThreadRef.get();
+        if (thread == null) return;
+        switch (msg.what) {
+            case KILL:
+                thread.kill();
+                break;
+            case FLUSH:
+                thread.flush();
+                break;
+        }
+    }
+}
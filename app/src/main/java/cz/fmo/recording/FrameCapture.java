@@ -0,0 +1,37 @@
+package cz.fmo.recording;
+
+import java.nio.ByteOrder;
+
+/**
+ * Binary format of raw frame capture files. The file starts with a header:
+ * <pre>
+ *   int   FILE_MAGIC
+ *   int   VERSION
+ *   int   frame width
+ *   int   frame height
+ * </pre>
+ * The header is followed by fixed-size records, one per frame:
+ * <pre>
+ *   int   RECORD_MAGIC
+ *   int   frame number, starting at 0
+ *   long  frame timestamp in nanoseconds
+ *   ...   width * height * 3 / 2 bytes of NV21 data
+ * </pre>
+ * All values are little-endian. The file is preallocated in chunks, so after a crash it may end
+ * with zeros; reading stops at the first record whose magic or frame number is wrong.
+ */
+final class FrameCapture {
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int FILE_MAGIC = 0x464F4D46; // "FMOF"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * 4;
+    static final int RECORD_MAGIC = 0x4D415246; // "FRAM"
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 8;
+
+    private FrameCapture() {
+    }
+
+    static int frameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+}
@@ -0,0 +1,108 @@
+package cz.fmo.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a capture file written by FrameCaptureWriter. Frames are not copied: next() returns views
+ * of the memory-mapped file, which can be passed to native code directly.
+ */
+public class FrameCaptureReader {
+    private final MappedByteBuffer mMap;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameSize;
+    private final int mRecordSize;
+    private final int mNumFrames;
+    private int mNext = 0;
+    private long mTimestamp = 0;
+
+    /**
+     * @throws IOException if the file cannot be read or is not a capture file
+     */
+    public FrameCaptureReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            mMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        mMap.order(FrameCapture.ORDER);
+
+        if (mMap.remaining() < FrameCapture.HEADER_SIZE ||
+                mMap.getInt() != FrameCapture.FILE_MAGIC ||
+                mMap.getInt() != FrameCapture.VERSION) {
+            throw new IOException("Not a frame capture file");
+        }
+
+        mWidth = mMap.getInt();
+        mHeight = mMap.getInt();
+        mFrameSize = FrameCapture.frameSize(mWidth, mHeight);
+        mRecordSize = FrameCapture.RECORD_HEADER_SIZE + mFrameSize;
+        mNumFrames = countFrames();
+    }
+
+    /**
+     * @return the number of complete, valid records at the start of the file
+     */
+    private int countFrames() {
+        int count = 0;
+        int pos = FrameCapture.HEADER_SIZE;
+
+        while (pos + mRecordSize <= mMap.limit()) {
+            if (mMap.getInt(pos) != FrameCapture.RECORD_MAGIC) break;
+            if (mMap.getInt(pos + 4) != count) break;
+            pos += mRecordSize;
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return view of the next frame (NV21 data), or null if there are no more frames; the
+     * timestamp of the frame is available through getTimestamp()
+     */
+    public ByteBuffer next() {
+        if (mNext >= mNumFrames) return null;
+        int pos = FrameCapture.HEADER_SIZE + mNext * mRecordSize;
+        mTimestamp = mMap.getLong(pos + 8);
+        mNext++;
+
+        ByteBuffer frame = mMap.duplicate();
+        frame.position(pos + FrameCapture.RECORD_HEADER_SIZE);
+        frame.limit(pos + mRecordSize);
+        return frame.slice();
+    }
+
+    /**
+     * Starts reading from the first frame again.
+     */
+    public void rewind() {
+        mNext = 0;
+    }
+
+    /**
+     * @return timestamp of the frame last returned by next(), in nanoseconds
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+}
@@ -0,0 +1,87 @@
+package cz.fmo.recording;
+
+import java.io.File;
+
+import cz.fmo.camera.Frame;
+import cz.fmo.detection.FrameQueue;
+import cz.fmo.util.Config;
+import cz.fmo.util.GenericThread;
+
+/**
+ * A separate thread that writes camera frames into a capture file using a FrameCaptureWriter, so
+ * that neither copying the frames nor forcing them out to storage holds up the camera. Frames are
+ * handed over using the submit() method, which never blocks: frames wait in a bounded queue, and
+ * if the writer cannot keep up, the newest frame is dropped and counted.
+ */
+public class FrameCaptureThread extends GenericThread<FrameCaptureThreadHandler> {
+    private final FrameQueue mQueue;
+    private final FrameCaptureWriter mWriter;
+
+    /**
+     * @param file      file to write to; existing contents are replaced
+     * @param width     width of the frames that will be submitted
+     * @param height    height of the frames that will be submitted
+     * @param factor    downscaling factor, 1 to store the frames as they are
+     * @param maxBytes  maximum size of the file
+     * @param queueSize maximum number of frames waiting to be written
+     */
+    public FrameCaptureThread(File file, int width, int height, int factor, long maxBytes,
+                              int queueSize) {
+        super("FrameCaptureThread");
+        mQueue = new FrameQueue(queueSize, Config.DropPolicy.DROP_NEWEST);
+        mWriter = new FrameCaptureWriter(file, width, height, factor, maxBytes);
+    }
+
+    /**
+     * Enqueues a frame to be written. Takes ownership of the frame. May be called from any thread,
+     * even after the thread has been killed, in which case the frame is recycled.
+     */
+    public void submit(Frame frame) {
+        FrameCaptureThreadHandler handler = getHandlerIfRunning();
+
+        if (handler == null) {
+            frame.recycle();
+            return;
+        }
+
+        mQueue.offer(frame);
+        handler.sendFrame();
+    }
+
+    /**
+     * Writes all frames waiting in the queue.
+     */
+    void writeFrames() {
+        Frame frame;
+        while ((frame = mQueue.poll()) != null) {
+            mWriter.write(frame.getData(), frame.getTimestamp());
+            frame.recycle();
+        }
+    }
+
+    @Override
+    protected FrameCaptureThreadHandler makeHandler() {
+        return new FrameCaptureThreadHandler(this);
+    }
+
+    @Override
+    protected void teardown() {
+        writeFrames();
+        mWriter.close();
+    }
+
+    /**
+     * @return the number of frames written so far
+     */
+    public int getNumFrames() {
+        return mWriter.getNumFrames();
+    }
+
+    /**
+     * @return the number of frames dropped so far, either because the writer could not keep up or
+     * because of the size limit
+     */
+    public long getNumDropped() {
+        return mQueue.getNumDropped() + mWriter.getNumDropped();
+    }
+}
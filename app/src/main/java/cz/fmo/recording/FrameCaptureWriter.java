@@ -0,0 +1,138 @@
+package cz.fmo.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cz.fmo.detection.Downscaler;
+
+/**
+ * Writes raw camera frames into a capture file (see FrameCapture for the format), so that they can
+ * be replayed later using FrameReplay. Frames are copied into a memory-mapped file, which is
+ * extended CHUNK_FRAMES frames at a time; each chunk is forced out to storage once it is full, and
+ * the last one on close(). Optionally, frames are downscaled by an integer factor first to save
+ * space. Since both the copy and the forcing take time, the writer is meant to be used from a
+ * FrameCaptureThread rather than from the camera thread.
+ * <p>
+ * Once the size limit is reached, further frames are dropped and counted. Not thread-safe.
+ */
+public class FrameCaptureWriter {
+    public static final String FILENAME = "frames.bin";
+    private static final int CHUNK_FRAMES = 16;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Downscaler mDownscaler;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRecordSize;
+    private final long mMaxFrames;
+    private MappedByteBuffer mMap = null;
+    private long mSize = FrameCapture.HEADER_SIZE;
+    private int mNumFrames = 0;
+    private long mNumDropped = 0;
+
+    /**
+     * @param file     file to write to; existing contents are replaced
+     * @param width    width of the frames that will be written
+     * @param height   height of the frames that will be written
+     * @param factor   downscaling factor, 1 to store the frames as they are
+     * @param maxBytes maximum size of the file
+     */
+    public FrameCaptureWriter(File file, int width, int height, int factor, long maxBytes) {
+        if (factor > 1) {
+            mDownscaler = new Downscaler(width, height, factor, false, 1);
+            mWidth = mDownscaler.getWidth();
+            mHeight = mDownscaler.getHeight();
+        } else {
+            mDownscaler = null;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        mRecordSize = FrameCapture.RECORD_HEADER_SIZE + FrameCapture.frameSize(mWidth, mHeight);
+        mMaxFrames = (maxBytes - FrameCapture.HEADER_SIZE) / mRecordSize;
+
+        try {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            MappedByteBuffer header = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    FrameCapture.HEADER_SIZE);
+            header.order(FrameCapture.ORDER);
+            header.putInt(FrameCapture.FILE_MAGIC);
+            header.putInt(FrameCapture.VERSION);
+            header.putInt(mWidth);
+            header.putInt(mHeight);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open frame capture file");
+        }
+    }
+
+    /**
+     * Appends a frame to the file.
+     *
+     * @param dataYUV420SP NV21 frame of the size given in the constructor
+     * @param timestamp    frame time in nanoseconds
+     */
+    public void write(ByteBuffer dataYUV420SP, long timestamp) {
+        if (mNumFrames >= mMaxFrames) {
+            mNumDropped++;
+            return;
+        }
+
+        if (mMap == null || mMap.remaining() < mRecordSize) {
+            try {
+                if (mMap != null) mMap.force();
+                mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, mSize,
+                        (long) CHUNK_FRAMES * mRecordSize);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot map frame capture file");
+            }
+            mMap.order(FrameCapture.ORDER);
+        }
+
+        ByteBuffer data = (mDownscaler == null) ? dataYUV420SP.duplicate() :
+                mDownscaler.process(dataYUV420SP);
+        data.clear();
+        data.limit(FrameCapture.frameSize(mWidth, mHeight));
+
+        mMap.putInt(FrameCapture.RECORD_MAGIC);
+        mMap.putInt(mNumFrames);
+        mMap.putLong(timestamp);
+        mMap.put(data);
+        mSize += mRecordSize;
+        mNumFrames++;
+    }
+
+    /**
+     * Truncates the file to the frames actually written and closes it.
+     */
+    public void close() {
+        if (mDownscaler != null) mDownscaler.release();
+
+        try {
+            if (mMap != null) mMap.force();
+            mChannel.truncate(mSize);
+            mFile.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close frame capture file");
+        }
+    }
+
+    /**
+     * @return the number of frames written so far
+     */
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return the number of frames dropped so far because of the size limit
+     */
+    public long getNumDropped() {
+        return mNumDropped;
+    }
+}
@@ -0,0 +1,161 @@
+package cz.fmo.recording;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.Lib;
+import cz.fmo.MeasuredLib;
+import cz.fmo.detection.DetectorComparison;
+
+/**
+ * Feeds the frames of a capture file into a detector, either as fast as possible, or at the pace
+ * at which they were captured. Since the input is always the same, both the throughput and the
+ * output of the detector can be compared between builds and devices; the output is summarized by
+ * a digest of all reported detections. Two detector configurations can also be compared with each
+ * other on the same frames, using DetectorComparison.
+ */
+public class FrameReplay implements Lib.Callback {
+    private final FrameCaptureReader mReader;
+    private final Lib.DetectionBatch mBatch;
+    private final Lib.Callback mCb;
+    private final boolean mRealTime;
+    private long mDigest = 0xcbf29ce484222325L;
+    private long mNumDetections = 0;
+    private int mNumFrames = 0;
+    private long mDetectionNs = 0;
+
+    /**
+     * @param reader   source of frames
+     * @param capacity maximum number of detections per frame
+     * @param realTime true to keep the original pace, false to replay as fast as possible
+     * @param cb       callback to forward log messages and detections to
+     */
+    public FrameReplay(FrameCaptureReader reader, int capacity, boolean realTime,
+                       Lib.Callback cb) {
+        mReader = reader;
+        mBatch = new Lib.DetectionBatch(capacity);
+        mRealTime = realTime;
+        mCb = cb;
+    }
+
+    /**
+     * Replays all frames using a new detector with the given settings. Blocks until done.
+     *
+     * @return false if interrupted
+     */
+    public boolean run(int procRes, boolean gray) {
+        long detector = MeasuredLib.detectorCreate(mReader.getWidth(), mReader.getHeight(),
+                procRes, gray, null, mBatch, this);
+
+        try {
+            return replay(detector, null);
+        } finally {
+            MeasuredLib.detectorDestroy(detector);
+        }
+    }
+
+    /**
+     * Replays all frames through two detector configurations using a DetectorComparison. Detections
+     * of the first configuration are reported as usual. Blocks until done.
+     *
+     * @return the report of the comparison, or null if interrupted
+     */
+    public String compare(int procResA, boolean grayA, int procResB, boolean grayB) {
+        DetectorComparison comparison = new DetectorComparison(mReader.getWidth(),
+                mReader.getHeight(), procResA, grayA, procResB, grayB, null, mBatch.capacity,
+                this);
+
+        try {
+            return replay(0, comparison) ? comparison.getReport() : null;
+        } finally {
+            comparison.release();
+        }
+    }
+
+    /**
+     * Feeds all frames either into the detector, or into the comparison if it is not null.
+     *
+     * @return false if interrupted
+     */
+    private boolean replay(long detector, DetectorComparison comparison) {
+        mReader.rewind();
+        long startNs = System.nanoTime();
+        long firstTimestamp = 0;
+        ByteBuffer frame;
+
+        while ((frame = mReader.next()) != null) {
+            if (Thread.interrupted()) return false;
+            long timestamp = mReader.getTimestamp();
+
+            if (mRealTime) {
+                if (mNumFrames == 0) firstTimestamp = timestamp;
+                long waitNs = (timestamp - firstTimestamp) - (System.nanoTime() - startNs);
+                if (waitNs > 0) {
+                    try {
+                        Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+
+            long frameStart = System.nanoTime();
+            if (comparison != null) {
+                comparison.process(frame, timestamp);
+            } else {
+                mBatch.timestamp = timestamp;
+                MeasuredLib.detectorFrame(detector, frame);
+            }
+            mDetectionNs += System.nanoTime() - frameStart;
+            mNumFrames++;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void log(String message) {
+        mCb.log(message);
+    }
+
+    @Override
+    public void onObjectsDetected(Lib.DetectionBatch batch) {
+        // FNV-1a over the frame number and the geometry of each detection
+        for (int i = 0; i < batch.size; i++) {
+            mDigest = (mDigest ^ mNumFrames) * 0x100000001b3L;
+            mDigest = (mDigest ^ batch.centerX[i]) * 0x100000001b3L;
+            mDigest = (mDigest ^ batch.centerY[i]) * 0x100000001b3L;
+            mDigest = (mDigest ^ Float.floatToIntBits(batch.radius[i])) * 0x100000001b3L;
+            mDigest = (mDigest ^ Float.floatToIntBits(batch.length[i])) * 0x100000001b3L;
+        }
+        mNumDetections += batch.size;
+        mCb.onObjectsDetected(batch);
+    }
+
+    /**
+     * @return the number of frames replayed so far
+     */
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return the number of detections reported so far
+     */
+    public long getNumDetections() {
+        return mNumDetections;
+    }
+
+    /**
+     * @return mean time spent in the detector per frame, in nanoseconds
+     */
+    public long getMeanDetectionNs() {
+        return mDetectionNs / Math.max(1, mNumFrames);
+    }
+
+    /**
+     * @return digest of all detections reported so far; equal digests mean equal outputs
+     */
+    public long getDigest() {
+        return mDigest;
+    }
+}
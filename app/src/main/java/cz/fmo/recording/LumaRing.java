@@ -0,0 +1,180 @@
+package cz.fmo.recording;
+
+import java.nio.ByteBuffer;
+
+import cz.fmo.detection.Downscaler;
+
+/**
+ * Keeps the most recent camera frames, downscaled and reduced to the luma plane, so that detection
+ * can be run over them again after the fact. This is the raw-image counterpart of CyclicBuffer,
+ * which keeps the encoded video.
+ * <p>
+ * All frames are stored in a single direct buffer allocated up front, whose size is bounded by the
+ * memory budget given in the constructor. Frames are numbered in the order in which they were
+ * pushed. The newest frames overwrite the oldest ones; a reader that is too slow finds out that
+ * its frame has been overwritten when read() returns false.
+ */
+public class LumaRing {
+    private final Downscaler mDownscaler;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFactor;
+    private final int mSlotSize;
+    private final int mNumSlots;
+    private final ByteBuffer mData;
+    private final long[] mFrameNumbers;
+    private final long[] mTimestamps;
+    private long mNext = 0;
+
+    /**
+     * @param width       width of the pushed frames
+     * @param height      height of the pushed frames
+     * @param factor      downscaling factor, 1 to keep full resolution
+     * @param budgetBytes maximum amount of memory to use for the frames
+     * @param maxFrames   maximum number of frames to keep
+     */
+    public LumaRing(int width, int height, int factor, long budgetBytes, int maxFrames) {
+        if (factor > 1) {
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            mDownscaler = new Downscaler(width, height, factor, true, numThreads);
+            mWidth = mDownscaler.getWidth();
+            mHeight = mDownscaler.getHeight();
+        } else {
+            mDownscaler = null;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        mFactor = factor;
+        mSlotSize = mWidth * mHeight;
+        mNumSlots = (int) Math.max(1, Math.min(maxFrames, budgetBytes / mSlotSize));
+        mData = ByteBuffer.allocateDirect(mNumSlots * mSlotSize);
+        mFrameNumbers = new long[mNumSlots];
+        mTimestamps = new long[mNumSlots];
+
+        for (int i = 0; i < mNumSlots; i++) {
+            mFrameNumbers[i] = -1;
+        }
+    }
+
+    /**
+     * Stores a frame, overwriting the oldest one if the ring is full. Not to be called from more
+     * than one thread at once.
+     *
+     * @param dataYUV420SP NV21 frame of the size given in the constructor
+     * @param timestamp    frame time in nanoseconds
+     */
+    public void push(ByteBuffer dataYUV420SP, long timestamp) {
+        ByteBuffer luma = (mDownscaler == null) ? dataYUV420SP.duplicate() :
+                mDownscaler.process(dataYUV420SP);
+        luma.clear();
+        luma.limit(mSlotSize);
+
+        long frame;
+        int slot;
+        synchronized (this) {
+            frame = mNext;
+            slot = (int) (frame % mNumSlots);
+            mFrameNumbers[slot] = -1; // invalidate while the slot is being written
+        }
+
+        ByteBuffer dst = mData.duplicate();
+        dst.position(slot * mSlotSize);
+        dst.put(luma);
+
+        synchronized (this) {
+            mFrameNumbers[slot] = frame;
+            mTimestamps[slot] = timestamp;
+            mNext = frame + 1;
+        }
+    }
+
+    /**
+     * @return number of the oldest frame that is still kept, with timestamp not lower than the
+     * given one; or the number that the next pushed frame will get, if there is no such frame
+     */
+    public synchronized long findByTime(long timestamp) {
+        long oldest = Math.max(0, mNext - mNumSlots);
+
+        for (long frame = oldest; frame < mNext; frame++) {
+            int slot = (int) (frame % mNumSlots);
+            if (mFrameNumbers[slot] == frame && mTimestamps[slot] >= timestamp) return frame;
+        }
+
+        return mNext;
+    }
+
+    /**
+     * @return number that the next pushed frame will get
+     */
+    public synchronized long end() {
+        return mNext;
+    }
+
+    /**
+     * Copies the luma plane of a frame. May be called from any thread.
+     *
+     * @param frame frame number
+     * @param out   buffer to copy width * height bytes to, starting at position 0
+     * @return timestamp of the frame, or -1 if the frame is not available (anymore)
+     */
+    public long read(long frame, ByteBuffer out) {
+        int slot = (int) (frame % mNumSlots);
+        long timestamp;
+
+        synchronized (this) {
+            if (mFrameNumbers[slot] != frame) return -1;
+            timestamp = mTimestamps[slot];
+        }
+
+        ByteBuffer src = mData.duplicate();
+        src.position(slot * mSlotSize);
+        src.limit(slot * mSlotSize + mSlotSize);
+        ByteBuffer dst = out.duplicate();
+        dst.clear();
+        dst.put(src);
+
+        // the slot might have been overwritten while copying
+        synchronized (this) {
+            if (mFrameNumbers[slot] != frame) return -1;
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * Releases the worker threads used for downscaling. The memory is released by the garbage
+     * collector.
+     */
+    public void release() {
+        if (mDownscaler != null) mDownscaler.release();
+    }
+
+    /**
+     * @return width of the stored frames
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of the stored frames
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return factor by which the stored frames are smaller than the pushed ones
+     */
+    public int getFactor() {
+        return mFactor;
+    }
+
+    /**
+     * @return the maximum number of frames kept
+     */
+    public int getNumSlots() {
+        return mNumSlots;
+    }
+}
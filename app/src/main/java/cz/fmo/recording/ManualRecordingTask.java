@@ -123,7 +123,7 @@ public class ManualRecordingTask implements SaveThread.Task {
     }
 
     @Override
-    public boolean extend() {
+    public boolean extend(long eventTimeUs) {
         return false;
     }
 }
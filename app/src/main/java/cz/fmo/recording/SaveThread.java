@@ -68,9 +68,11 @@ public class SaveThread extends GenericThread<SaveThreadHandler> {
         /**
          * Requests that the time of finishing the task is postponed.
          *
+         * @param eventTimeUs capture time of the frame that contains the latest event, in
+         *                    microseconds, or 0 if unknown
          * @return whether the task has been successfully extended
          */
-        boolean extend();
+        boolean extend(long eventTimeUs);
     }
 
     @SuppressWarnings("UnusedParameters")
@@ -0,0 +1,75 @@
+package cz.fmo.util;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Delivers events to a handler as messages, merging events that arrive in quick succession. At
+ * most one message is delivered per window: events that arrive while a message is pending are
+ * folded into it. An event that arrives after the channel has been quiet for a whole window is
+ * delivered immediately, so that the first event after an idle period is never delayed.
+ * <p>
+ * The post() method may be called from any thread. The receiving handler must call onDelivered()
+ * when it handles the message.
+ */
+public class CoalescingChannel {
+    private final Handler mHandler;
+    private final int mWhat;
+    private final long mWindowMs;
+    private boolean mPending = false;
+    private long mLastDelivery = Long.MIN_VALUE / 2;
+    private long mNumEvents = 0;
+    private long mNumPosted = 0;
+
+    /**
+     * @param handler  handler to deliver messages to
+     * @param what     message code to deliver
+     * @param windowMs minimum time between two messages in milliseconds
+     */
+    public CoalescingChannel(Handler handler, int what, long windowMs) {
+        mHandler = handler;
+        mWhat = what;
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Reports an event. Sends a message, unless there is one pending already.
+     */
+    public synchronized void post() {
+        mNumEvents++;
+        if (mPending) return;
+        mPending = true;
+        mNumPosted++;
+
+        long now = SystemClock.uptimeMillis();
+        long due = mLastDelivery + mWindowMs;
+
+        if (now >= due) {
+            mHandler.sendMessage(mHandler.obtainMessage(mWhat));
+        } else {
+            mHandler.sendMessageAtTime(mHandler.obtainMessage(mWhat), due);
+        }
+    }
+
+    /**
+     * To be called by the receiving handler when it handles a message sent by this channel.
+     */
+    public synchronized void onDelivered() {
+        mPending = false;
+        mLastDelivery = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @return the number of messages sent so far
+     */
+    public synchronized long getNumPosted() {
+        return mNumPosted;
+    }
+
+    /**
+     * @return the number of events that were merged into an already pending message so far
+     */
+    public synchronized long getNumMerged() {
+        return mNumEvents - mNumPosted;
+    }
+}
@@ -4,30 +4,115 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import cz.fmo.detection.CostModel;
+
 public final class Config {
     public final boolean frontFacing;
     public final boolean highResolution;
+    public final boolean camera2;
+    public final int targetFrameRate;
+    public final long framePoolMemoryBytes;
     public final RecordMode recordMode;
     public final boolean slowPreview;
     public final boolean gray;
     public final int procRes;
+    public final CostModel costModel;
     public final VelocityEstimationMode velocityEstimationMode;
     public final float objectRadius;
-    public final float frameRate;
     public final boolean disableDetection;
+    public final int detectionQueueSize;
+    public final DropPolicy dropPolicy;
+    public final int trackLength;
+    public final boolean adaptiveProcRes;
+    public final float frameBudgetMs;
+    public final boolean roiDetection;
+    public final float[][] detectionZones;
+    public final boolean motionGating;
+    public final boolean frameSkipping;
+    public final int motionThreshold;
+    public final float idleFrameRate;
+    public final boolean javaDownscale;
+    public final int tileThreads;
+    public final boolean resultRing;
+    public final long autoRecordWindowMs;
+    public final boolean compareDetectors;
+    public final int compareProcRes;
+    public final boolean compareGray;
+    public final boolean detectionLog;
+    public final boolean frameCapture;
+    public final int frameCaptureFactor;
+    public final long frameCaptureLimitBytes;
+    public final boolean preRollRedetect;
+    public final int preRollProcRes;
+    public final long preRollMemoryBytes;
+    public final boolean jniStats;
+    private volatile float mFrameRate = 30;
 
     public Config(Context ctx) {
-        SharedPreferences p = PreferenceManager.getDefaultSharedPreferences(ctx);
+        this(PreferenceManager.getDefaultSharedPreferences(ctx));
+    }
+
+    /**
+     * Reads the configuration from the given preferences rather than from the default ones, e.g.
+     * in tests.
+     */
+    public Config(SharedPreferences p) {
         frontFacing = getFrontFacing(p);
         highResolution = p.getString("resolution", "1").equals("2");
+        camera2 = p.getBoolean("camera2", false);
+        targetFrameRate = (int) getFloatFromString(p, "captureFrameRate", "30");
+        framePoolMemoryBytes = (long) (getFloatFromString(p, "framePoolMemory", "48") * 1024 *
+                1024);
         recordMode = getRecordMode(p);
         slowPreview = p.getBoolean("slowPreview", false);
         gray = getGray(p);
         procRes = (int) getFloatFromString(p, "procRes", "300");
+        costModel = CostModel.load(p);
         velocityEstimationMode = getVelocityEstimationMode(p);
         objectRadius = getObjectRadius(p);
-        frameRate = getFloatFromString(p, "frameRate", "30.00");
         disableDetection = p.getBoolean("disableDetection", false);
+        detectionQueueSize = (int) getFloatFromString(p, "detectionQueueSize", "1");
+        dropPolicy = getDropPolicy(p);
+        trackLength = (int) getFloatFromString(p, "trackLength", "30");
+        adaptiveProcRes = p.getBoolean("adaptiveProcRes", false);
+        frameBudgetMs = getFloatFromString(p, "frameBudget", "33");
+        roiDetection = p.getBoolean("roiDetection", false);
+        detectionZones = getDetectionZones(p);
+        motionGating = p.getBoolean("motionGating", false);
+        frameSkipping = p.getBoolean("frameSkipping", false);
+        motionThreshold = (int) getFloatFromString(p, "motionThreshold", "24");
+        idleFrameRate = getFloatFromString(p, "idleFrameRate", "2");
+        javaDownscale = p.getBoolean("javaDownscale", false);
+        tileThreads = (int) getFloatFromString(p, "tileThreads", "1");
+        resultRing = p.getBoolean("resultRing", false);
+        autoRecordWindowMs = (long) getFloatFromString(p, "autoRecordWindow", "100");
+        compareDetectors = p.getBoolean("compareDetectors", false);
+        compareProcRes = (int) getFloatFromString(p, "compareProcRes", "150");
+        compareGray = p.getString("compareColorSpace", "yuv").equals("gray");
+        detectionLog = p.getBoolean("detectionLog", false);
+        frameCapture = p.getBoolean("frameCapture", false);
+        frameCaptureFactor = (int) getFloatFromString(p, "frameCaptureFactor", "1");
+        frameCaptureLimitBytes = getFrameCaptureLimitBytes(p);
+        preRollRedetect = p.getBoolean("preRollRedetect", false);
+        preRollProcRes = (int) getFloatFromString(p, "preRollProcRes", "600");
+        preRollMemoryBytes = (long) (getFloatFromString(p, "preRollMemory", "32") * 1024 * 1024);
+        jniStats = p.getBoolean("jniStats", false);
+    }
+
+    /**
+     * @return the frame rate the camera has been configured with, 30 until then
+     */
+    public float getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Records the frame rate the camera has actually been configured with, so that velocities are
+     * computed from it. Rates that are not positive are ignored.
+     */
+    public void setFrameRate(float frameRate) {
+        if (frameRate <= 0) return;
+        mFrameRate = frameRate;
     }
 
     private boolean getFrontFacing(SharedPreferences p) {
@@ -64,6 +149,27 @@ public final class Config {
         }
     }
 
+    private DropPolicy getDropPolicy(SharedPreferences p) {
+        String s = p.getString("dropPolicy", "oldest");
+        switch (s) {
+            case "newest":
+                return DropPolicy.DROP_NEWEST;
+            default:
+                return DropPolicy.DROP_OLDEST;
+        }
+    }
+
+    private float[][] getDetectionZones(SharedPreferences p) {
+        float[][] zones = DetectionZones.parse(p.getString("detectionZones", ""));
+        return (zones == null) ? new float[0][] : zones;
+    }
+
+    private long getFrameCaptureLimitBytes(SharedPreferences p) {
+        // memory-mapped files are indexed by int, so the capture must stay below 2 GiB
+        float mb = getFloatFromString(p, "frameCaptureLimit", "512");
+        return (long) (Math.max(1, Math.min(2047, mb)) * 1024 * 1024);
+    }
+
     private float getFloatFromString(SharedPreferences p, String param, String defaultValue) {
         String frameRate = p.getString(param, defaultValue);
 
@@ -96,4 +202,9 @@ public final class Config {
         KM_H,
         MPH,
     }
+
+    public enum DropPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+    }
 }
@@ -0,0 +1,62 @@
+package cz.fmo.util;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Parses the textual definition of detection zones, as entered in settings. Zones are separated by
+ * semicolons; each zone is a list of points separated by spaces, each point being a pair of
+ * comma-separated coordinates in percent of the image width and height. A zone with two points is
+ * an axis-aligned rectangle given by opposite corners; a zone with three or more points is a
+ * polygon. Example: "10,20 90,80; 0,0 20,0 0,20".
+ */
+public final class DetectionZones {
+    private DetectionZones() {
+    }
+
+    /**
+     * @param text zone definition; an empty string means no zones (the whole image is processed)
+     * @return one polygon per zone, each stored as x0, y0, x1, y1, ... in the range 0 to 1; an
+     * empty array if there are no zones; null if the text is malformed
+     */
+    public static float[][] parse(String text) {
+        ArrayList<float[]> zones = new ArrayList<>();
+
+        for (String zone : text.split(";")) {
+            zone = zone.trim();
+            if (zone.isEmpty()) continue;
+            String[] points = zone.split("\\s+");
+            float[] coords = new float[2 * points.length];
+
+            for (int i = 0; i < points.length; i++) {
+                String[] xy = points[i].split(",");
+                if (xy.length != 2) return null;
+                try {
+                    coords[2 * i] = Float.parseFloat(xy[0]) / 100.f;
+                    coords[2 * i + 1] = Float.parseFloat(xy[1]) / 100.f;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+
+            if (points.length == 2) {
+                zones.add(new float[]{coords[0], coords[1], coords[2], coords[1], coords[2],
+                        coords[3], coords[0], coords[3]});
+            } else if (points.length >= 3) {
+                zones.add(coords);
+            } else {
+                return null;
+            }
+        }
+
+        return zones.toArray(new float[zones.size()][]);
+    }
+
+    /**
+     * @return a human-readable description of the zones, suitable for a preference summary
+     */
+    public static String describe(float[][] zones) {
+        if (zones.length == 0) return "Whole image";
+        return String.format(Locale.US, "%d zone(s)", zones.length);
+    }
+}
@@ -74,6 +74,16 @@ public abstract class GenericThread<H extends android.os.Handler> extends Thread
         return mHandler;
     }
 
+    /**
+     * @return the handler for this instance, or null if the event loop is not running; meant for
+     * callers that may outlive the thread
+     */
+    public final H getHandlerIfRunning() {
+        synchronized (mLock) {
+            return mHandler;
+        }
+    }
+
     /**
      * Stops the execution of the event loop, terminating the thread.
      */
@@ -5,6 +5,10 @@ public final class Time {
         return (long) (sec * 1e6f);
     }
 
+    public static long toNs(float sec) {
+        return (long) (sec * 1e9);
+    }
+
     public static long toMs(float sec) {
         return (long) (sec * 1e3f);
     }
@@ -0,0 +1,221 @@
+package cz.fmo.camera;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import cz.fmo.Lib;
+import cz.fmo.detection.DetectionThread;
+import cz.fmo.detection.FrameQueue;
+import cz.fmo.util.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the raw frame path on a plain JVM, using FakeFrameSource in place of a camera. Native
+ * detection is not available here, so only the Java side of the path is covered: the hand-over of
+ * frames, their ownership and the queueing in front of the detector.
+ */
+public class FakeFrameSourceTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    @Test
+    public void handsFramesOverWithDataAndTimestamp() {
+        HoldingCallback cb = new HoldingCallback();
+        FakeFrameSource source = new FakeFrameSource(cb, WIDTH, HEIGHT, 30, 2);
+        byte[] data = frameData(7);
+
+        assertTrue(source.push(data, 1000));
+        assertEquals(1, cb.mFrames.size());
+        Frame frame = cb.mFrames.get(0);
+        assertEquals(1000, frame.getTimestamp());
+        byte[] received = new byte[FRAME_SIZE];
+        frame.getData().duplicate().get(received);
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    public void dropsFramesWhileReceiverHoldsAllBuffers() {
+        HoldingCallback cb = new HoldingCallback();
+        FakeFrameSource source = new FakeFrameSource(cb, WIDTH, HEIGHT, 30, 2);
+
+        assertTrue(source.push(frameData(1), 1));
+        assertTrue(source.push(frameData(2), 2));
+        assertFalse(source.push(frameData(3), 3));
+        assertEquals(3, source.getNumPushed());
+        assertEquals(1, source.getNumDropped());
+
+        cb.mFrames.remove(0).recycle();
+        assertTrue(source.push(frameData(4), 4));
+        assertEquals(4, cb.mFrames.get(1).getTimestamp());
+    }
+
+    @Test
+    public void dropsFramesOnceStopped() {
+        HoldingCallback cb = new HoldingCallback();
+        FakeFrameSource source = new FakeFrameSource(cb, WIDTH, HEIGHT, 30, 2);
+
+        source.stop();
+        assertFalse(source.push(frameData(1), 1));
+        assertEquals(0, cb.mFrames.size());
+        assertEquals(1, source.getNumDropped());
+    }
+
+    @Test
+    public void retainedFrameReturnsToPoolAfterLastRecycle() {
+        HoldingCallback cb = new HoldingCallback();
+        FakeFrameSource source = new FakeFrameSource(cb, WIDTH, HEIGHT, 30, 1);
+
+        assertTrue(source.push(frameData(1), 1));
+        Frame frame = cb.mFrames.remove(0);
+        frame.retain();
+        frame.recycle();
+        assertFalse(source.push(frameData(2), 2));
+
+        frame.recycle();
+        assertTrue(source.push(frameData(3), 3));
+    }
+
+    @Test
+    public void detectionQueueDropsOldestFrameWhenFull() {
+        final FrameQueue queue = new FrameQueue(2, Config.DropPolicy.DROP_OLDEST);
+        FakeFrameSource source = new FakeFrameSource(new FrameSource.Callback() {
+            @Override
+            public void onCameraFrame(Frame frame) {
+                queue.offer(frame);
+            }
+
+            @Override
+            public void onCameraError() {
+            }
+        }, WIDTH, HEIGHT, 30, 3);
+
+        assertTrue(source.push(frameData(1), 1));
+        assertTrue(source.push(frameData(2), 2));
+        assertTrue(source.push(frameData(3), 3));
+        assertEquals(3, queue.getNumReceived());
+        assertEquals(1, queue.getNumDropped());
+
+        // the dropped frame has been recycled, so the pool has a free frame again
+        assertTrue(source.push(frameData(4), 4));
+        assertEquals(3, queue.poll().getTimestamp());
+        assertEquals(4, queue.poll().getTimestamp());
+    }
+
+    @Test
+    public void detectionThreadRecyclesFramesWhileNotRunning() {
+        Config config = new Config(new DefaultPreferences());
+        DetectionThread detection = new DetectionThread(config, WIDTH, HEIGHT, HEIGHT,
+                new Lib.DetectionBatch(4), new SilentCallback(), null);
+        FakeFrameSource source = new FakeFrameSource(detection, WIDTH, HEIGHT, 30, 1);
+
+        assertTrue(source.push(frameData(1), 1));
+        assertTrue(source.push(frameData(2), 2));
+        assertEquals(0, detection.getNumReceived());
+        assertEquals(0, source.getNumDropped());
+    }
+
+    private static byte[] frameData(int seed) {
+        byte[] data = new byte[FRAME_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    /**
+     * Keeps every frame it receives, without recycling it.
+     */
+    private static class HoldingCallback implements FrameSource.Callback {
+        final ArrayList<Frame> mFrames = new ArrayList<>();
+
+        @Override
+        public void onCameraFrame(Frame frame) {
+            mFrames.add(frame);
+        }
+
+        @Override
+        public void onCameraError() {
+        }
+    }
+
+    private static class SilentCallback implements Lib.Callback {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+        }
+    }
+
+    /**
+     * Empty preferences, so that Config falls back to its defaults.
+     */
+    private static class DefaultPreferences implements SharedPreferences {
+        @Override
+        public Map<String, ?> getAll() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return defValue;
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return false;
+        }
+
+        @Override
+        public Editor edit() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+    }
+}
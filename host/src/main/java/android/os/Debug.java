@@ -0,0 +1,19 @@
+package android.os;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Host stand-in for android.os.Debug, so that DetectorComparison compiles on the host. Only the
+ * thread CPU time is provided.
+ */
+public final class Debug {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Debug() {
+    }
+
+    public static long threadCpuTimeNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+}
@@ -0,0 +1,13 @@
+package android.support.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stand-in for the support library annotation, so that Lib compiles on the host.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+public @interface Nullable {
+}
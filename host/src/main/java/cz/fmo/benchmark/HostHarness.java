@@ -0,0 +1,119 @@
+package cz.fmo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import cz.fmo.Lib;
+import cz.fmo.LibStats;
+import cz.fmo.recording.FrameCaptureReader;
+import cz.fmo.recording.FrameReplay;
+
+/**
+ * Command-line entry point of the host build. Calls the native methods of Lib directly, on
+ * synthetic frames or on capture files written by the app (see FrameCaptureWriter):
+ * <pre>
+ *   synthetic                     Java-side benchmarks on synthetic frames (default)
+ *   tiles                         tile-parallel detection scaling on synthetic frames
+ *   detect [frames] [procRes]     detection on synthetic frames, printing every detection
+ *   replay file                   ReplayBenchmark on a capture file
+ *   dump file [procRes]           detection on a capture file, printing every detection
+ * </pre>
+ * JNI statistics (see LibStats) are printed at the end of each run.
+ */
+public final class HostHarness {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int DEFAULT_PROC_RES = 300;
+    private static final int DEFAULT_FRAMES = 100;
+    private static final int MAX_DETECTIONS = 32;
+
+    private HostHarness() {
+    }
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "synthetic";
+        Printer printer = new Printer();
+        LibStats.setEnabled(true);
+
+        if (mode.equals("synthetic")) {
+            new IngestionBenchmark().run(printer);
+            new DownscaleBenchmark().run(printer);
+        } else if (mode.equals("tiles")) {
+            new TileBenchmark().run(printer);
+        } else if (mode.equals("detect")) {
+            int frames = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FRAMES;
+            int procRes = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PROC_RES;
+            detectSynthetic(frames, procRes, printer);
+        } else if (mode.equals("replay") && args.length > 1) {
+            new ReplayBenchmark(new File(args[1])).run(printer);
+        } else if (mode.equals("dump") && args.length > 1) {
+            int procRes = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PROC_RES;
+            if (!dump(new File(args[1]), procRes, printer)) System.exit(1);
+        } else {
+            System.err.println("Usage: HostHarness [synthetic | tiles | " +
+                    "detect [frames] [procRes] | replay file | dump file [procRes]]");
+            System.exit(2);
+        }
+
+        System.out.print(LibStats.describe());
+        LibStats.setEnabled(false);
+    }
+
+    private static void detectSynthetic(int frames, int procRes, Printer printer) {
+        byte[] array = new byte[WIDTH * HEIGHT * 3 / 2];
+        ByteBuffer direct = ByteBuffer.allocateDirect(array.length);
+        Lib.DetectionBatch batch = new Lib.DetectionBatch(MAX_DETECTIONS);
+        long detector = Lib.detectorCreate(WIDTH, HEIGHT, procRes, false, null, batch, printer);
+
+        try {
+            for (int i = 0; i < frames; i++) {
+                SyntheticFrames.fill(array, WIDTH, HEIGHT, i);
+                direct.clear();
+                direct.put(array);
+                batch.timestamp = i;
+                LibStats.onFrame();
+                Lib.detectorFrame(detector, direct);
+            }
+        } finally {
+            Lib.detectorDestroy(detector);
+        }
+    }
+
+    private static boolean dump(File file, int procRes, Printer printer) {
+        FrameCaptureReader reader;
+        try {
+            reader = new FrameCaptureReader(file);
+        } catch (IOException e) {
+            System.err.println("Cannot read " + file);
+            return false;
+        }
+
+        FrameReplay replay = new FrameReplay(reader, MAX_DETECTIONS, false, printer);
+        if (!replay.run(procRes, false)) return false;
+        System.out.println(String.format(Locale.US, "%d frames, %d detections, %016x",
+                replay.getNumFrames(), replay.getNumDetections(), replay.getDigest()));
+        return true;
+    }
+
+    /**
+     * Prints log messages and detections to standard output.
+     */
+    private static class Printer implements Lib.Callback {
+        @Override
+        public void log(String message) {
+            System.out.print(message);
+        }
+
+        @Override
+        public void onObjectsDetected(Lib.DetectionBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                System.out.println(String.format(Locale.US,
+                        "%d: #%d at (%d, %d), length %.1f, radius %.1f, velocity %.2f",
+                        batch.timestamp, batch.id[i], batch.centerX[i], batch.centerY[i],
+                        batch.length[i], batch.radius[i], batch.velocity[i]));
+            }
+        }
+    }
+}
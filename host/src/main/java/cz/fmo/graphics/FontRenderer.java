@@ -0,0 +1,31 @@
+package cz.fmo.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Host stand-in for the OpenGL-based FontRenderer. Only the Buffers class is provided, with the
+ * same fields as on Android, since native code looks them up.
+ */
+public final class FontRenderer {
+    private static final int MAX_CHARACTERS = 128;
+
+    private FontRenderer() {
+    }
+
+    public static class Buffers {
+        public final float[] posMat = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+        public final FloatBuffer pos = makeFloatBuffer(8 * MAX_CHARACTERS);
+        public final FloatBuffer uv = makeFloatBuffer(8 * MAX_CHARACTERS);
+        public final FloatBuffer color = makeFloatBuffer(16 * MAX_CHARACTERS);
+        public final IntBuffer idx = ByteBuffer.allocateDirect(4 * 6 * MAX_CHARACTERS)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        public int numCharacters = 0;
+    }
+
+    static FloatBuffer makeFloatBuffer(int size) {
+        return ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,21 @@
+package cz.fmo.graphics;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Host stand-in for the OpenGL-based TriangleStripRenderer. Only the Buffers class is provided,
+ * with the same fields as on Android, since native code looks them up.
+ */
+public final class TriangleStripRenderer {
+    private static final int MAX_VERTICES = 512;
+
+    private TriangleStripRenderer() {
+    }
+
+    public static class Buffers {
+        public final float[] posMat = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+        public final FloatBuffer pos = FontRenderer.makeFloatBuffer(2 * MAX_VERTICES);
+        public final FloatBuffer color = FontRenderer.makeFloatBuffer(4 * MAX_VERTICES);
+        public int numVertices = 0;
+    }
+}